@@ -1,3 +1,99 @@
 plugins {
     id("java")
 }
+
+sourceSets {
+    // The scanner using the incubating Vector API, which is only used when the module is added at runtime
+    create("vector") {
+        compileClasspath += sourceSets.main.get().output
+    }
+    create("benchmark") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output + sourceSets["vector"].output
+    }
+}
+
+tasks.named<JavaCompile>("compileVectorJava") {
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+}
+
+tasks.jar {
+    from(sourceSets["vector"].output)
+}
+
+tasks.register<JavaExec>("parallelParseBenchmark") {
+    group = "benchmark"
+    description = "Measures the scaling of the parallel parsing of ANSI text with the number of cores."
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("java_swing_ansi_support.ParallelParseBenchmark")
+    maxHeapSize = "4g"
+}
+
+tasks.register<JavaExec>("pathologicalInputBenchmark") {
+    group = "benchmark"
+    description = "Checks that hostile input that looks like endless escape codes is parsed in linear time."
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("java_swing_ansi_support.PathologicalInputBenchmark")
+    maxHeapSize = "2g"
+}
+
+tasks.register<JavaExec>("lineStoreBenchmark") {
+    group = "benchmark"
+    description = "Compares appending ANSI text to an AnsiLineStore with copying the text and with inserting it into a document."
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("java_swing_ansi_support.LineStoreBenchmark")
+    maxHeapSize = "4g"
+}
+
+tasks.register<JavaExec>("spillFileBenchmark") {
+    group = "benchmark"
+    description = "Checks that the spill file of a trimmed document with a memory budget stays bounded."
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("java_swing_ansi_support.SpillFileBenchmark")
+}
+
+tasks.register<JavaExec>("scanBenchmark") {
+    group = "benchmark"
+    description = "Compares the scanning for escape codes using the Vector API with scanning one character at a time."
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("java_swing_ansi_support.ScanBenchmark")
+    jvmArgs("--add-modules", "jdk.incubator.vector")
+    maxHeapSize = "4g"
+}
+
+tasks.register<JavaExec>("scalarScanBenchmark") {
+    group = "benchmark"
+    description = "Runs the scan benchmark without the Vector API, so the parsing paths use the scalar scanner."
+    classpath = sourceSets["benchmark"].runtimeClasspath
+    mainClass.set("java_swing_ansi_support.ScanBenchmark")
+    maxHeapSize = "4g"
+}
+
+// The tests are plain main classes, which exit with status 1 if a check fails, so they need no test framework. They
+// check that the different paths of the library agree with each other, and run with the test task.
+val equivalenceTests = mapOf(
+    "parallelParseTest" to
+        "Checks that parsing ANSI text in parallel gives the same document as parsing it sequentially.",
+    "byteDecoderTest" to "Checks that reading bytes gives the same document as inserting the decoded string.",
+    "storageTest" to "Checks that the compressed, off-heap and spilled storage of a document round-trip the text.",
+    "searchTest" to "Checks that the search index finds the same matches as a brute force search.",
+    "lineStoreTest" to "Checks that the lines of a line store read the same text as the lines of a document.",
+)
+
+for ((name, testDescription) in equivalenceTests) {
+    val test = tasks.register<JavaExec>(name) {
+        group = "verification"
+        description = testDescription
+        classpath = sourceSets.test.get().runtimeClasspath
+        mainClass.set("java_swing_ansi_support." + name.replaceFirstChar { it.uppercase() })
+        systemProperty("java.awt.headless", "true")
+        maxHeapSize = "2g"
+    }
+    tasks.test {
+        dependsOn(test)
+    }
+}
+
+tasks.test {
+    failOnNoDiscoveredTests.set(false) // the tests are run by the tasks above
+}
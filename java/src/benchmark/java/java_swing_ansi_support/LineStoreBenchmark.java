@@ -0,0 +1,72 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.StyledDocument;
+
+/**
+ * Measures the time for appending a large ANSI log to an {@link AnsiLineStore} compared to copying the text, and to
+ * inserting it into a document with {@link AnsiEditorKit#insertAnsi(StyledDocument, String, int)}, which parses and
+ * styles every line. The log is measured both with escape codes on every line, and as plain text.
+ * <p>
+ * Run with {@code gradle lineStoreBenchmark}. The size of the log in megabytes can be given as argument (default is 32).
+ */
+public class LineStoreBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+    private static final int APPEND_SIZE = 64 * 1024; // the size of each append, like a burst of console output
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        String ansiLog = ParallelParseBenchmark.createLog(megabytes * 1024 * 1024);
+        var plainLog = new StringBuilder(ansiLog.length());
+        AnsiTokenizer.runs(ansiLog).forEach(run -> plainLog.append(run.text()));
+        var kit = new AnsiEditorKit();
+
+        System.out.printf("ANSI log: %d MB%n", megabytes);
+        for (String log : new String[]{ansiLog, plainLog.toString()}) {
+            System.out.println(log == ansiLog ? "with escape codes on every line:" : "plain text:");
+            double copy = measure(() -> append(new StringBuilder(), log));
+            System.out.printf("  copy:              %8.1f ms%n", copy);
+            double store = measure(() -> append(new AnsiLineStore(), log));
+            System.out.printf("  AnsiLineStore:     %8.1f ms (%.1fx copy)%n", store, store / copy);
+            double document = measure(() -> {
+                var doc = (StyledDocument) kit.createDefaultDocument();
+                for (int start = 0; start < log.length(); start += APPEND_SIZE) {
+                    kit.insertAnsi(doc, log.substring(start, Math.min(log.length(), start + APPEND_SIZE)));
+                }
+            });
+            System.out.printf("  insertAnsi:        %8.1f ms (%.1fx copy)%n", document, document / copy);
+        }
+    }
+
+    private static void append(StringBuilder builder, String log) {
+        for (int start = 0; start < log.length(); start += APPEND_SIZE) {
+            builder.append(log.substring(start, Math.min(log.length(), start + APPEND_SIZE)));
+        }
+    }
+
+    private static void append(AnsiLineStore store, String log) {
+        for (int start = 0; start < log.length(); start += APPEND_SIZE) {
+            store.append(log.substring(start, Math.min(log.length(), start + APPEND_SIZE)));
+        }
+    }
+
+    /**
+     * Returns the average time in milliseconds for running a task after the warmup rounds.
+     */
+    private static double measure(Task task) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            task.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            task.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / ROUNDS;
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws Exception;
+    }
+}
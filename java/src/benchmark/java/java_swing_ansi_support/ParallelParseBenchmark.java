@@ -0,0 +1,83 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.StyledDocument;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures the time for inserting a large ANSI log into a document with the sequential parsing of
+ * {@link AnsiEditorKit#insertAnsi(StyledDocument, String, int)} compared to the parallel parsing of
+ * {@link AnsiEditorKit#insertAnsiParallel(StyledDocument, String, int, ForkJoinPool)} with an increasing number of
+ * cores.
+ * <p>
+ * Run with {@code gradle parallelParseBenchmark}. The size of the log in megabytes can be given as argument
+ * (default is 32).
+ */
+public class ParallelParseBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        String ansiText = createLog(megabytes * 1024 * 1024);
+        var kit = new AnsiEditorKit();
+
+        System.out.printf("ANSI log: %d MB, %d cores available%n", megabytes, Runtime.getRuntime().availableProcessors());
+
+        double sequential = measure(() -> kit.insertAnsi(newDocument(kit), ansiText, 0));
+        System.out.printf("sequential:          %8.1f ms%n", sequential);
+
+        for (int cores = 1; cores <= Runtime.getRuntime().availableProcessors(); cores *= 2) {
+            var pool = new ForkJoinPool(cores);
+            double parallel = measure(() -> kit.insertAnsiParallel(newDocument(kit), ansiText, 0, pool));
+            System.out.printf("parallel, %3d cores: %8.1f ms (speedup %.2fx)%n", cores, parallel, sequential / parallel);
+            pool.shutdown();
+        }
+    }
+
+    private static StyledDocument newDocument(AnsiEditorKit kit) {
+        return (StyledDocument) kit.createDefaultDocument();
+    }
+
+    /**
+     * Returns the average time in milliseconds for running a task after the warmup rounds.
+     */
+    private static double measure(Task task) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            task.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            task.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / ROUNDS;
+    }
+
+    /**
+     * Creates a log with colored log levels and timestamps of approximately a specific length.
+     */
+    static String createLog(int length) {
+        var random = new Random(42);
+        var levels = new AnsiEscCode[]{AnsiEscCode.GREEN, AnsiEscCode.YELLOW, AnsiEscCode.RED, AnsiEscCode.CYAN};
+        var names = new String[]{" INFO", " WARN", "ERROR", "DEBUG"};
+        var log = new StringBuilder(length + 256);
+        var builder = new AnsiTextBuilder(log);
+        for (int line = 0; log.length() < length; line++) {
+            int level = random.nextInt(levels.length);
+            builder.esc(AnsiEscCode.BRIGHT_BLACK)
+                    .text(String.format("12:%02d:%02d.%03d ", line / 60000 % 60, line / 1000 % 60, line % 1000))
+                    .esc(levels[level]).bold().text(names[level])
+                    .reset().text(" [worker-" + random.nextInt(32) + "] ")
+                    .text("Processed request " + random.nextInt(1_000_000) + " in " + random.nextInt(500) + " ms")
+                    .newline()
+                    .flush();
+        }
+        return log.toString();
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws Exception;
+    }
+}
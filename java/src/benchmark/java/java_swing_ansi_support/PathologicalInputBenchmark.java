@@ -0,0 +1,122 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.StyledDocument;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Measures the time for parsing hostile input, which looks like the start of escape codes that never end, e.g. a
+ * corrupted binary file printed to the console. The input is parsed by {@link AnsiEditorKit#insertAnsi}, by
+ * {@link AnsiEditorKit#read} from a byte stream, and by the {@link AnsiHtmlExporter}.
+ * <p>
+ * The time per character must stay the same when the size of the input grows, as the escape codes are matched in
+ * linear time. The benchmark exits with status 1, if the time per character of the largest input is more than 3 times
+ * the time per character of the smallest input.
+ * <p>
+ * Run with {@code gradle pathologicalInputBenchmark}.
+ */
+public class PathologicalInputBenchmark {
+
+    private static final int MIN_LENGTH = 64 * 1024;
+    private static final int MAX_LENGTH = 4 * 1024 * 1024;
+    private static final double MAX_SLOWDOWN = 3;
+
+    public static void main(String[] args) throws Exception {
+        var kit = new AnsiEditorKit();
+        var exporter = new AnsiHtmlExporter();
+        boolean linear = true;
+
+        for (var input : Input.values()) {
+            System.out.printf("%s:%n", input.description);
+            double firstNanosPerChar = 0;
+            double nanosPerChar = 0;
+            for (int length = MIN_LENGTH; length <= MAX_LENGTH; length *= 4) {
+                String ansiText = input.create(length);
+                byte[] bytes = ansiText.getBytes(StandardCharsets.UTF_8);
+
+                double insert = measure(() -> kit.insertAnsi(newDocument(kit), ansiText, 0));
+                double read = measure(() -> kit.read(new ByteArrayInputStream(bytes), newDocument(kit), 0));
+                double export = measure(() -> exporter.exportFragment(new StringReader(ansiText), Writer.nullWriter()));
+
+                nanosPerChar = (insert + read + export) * 1e6 / length;
+                if (length == MIN_LENGTH)
+                    firstNanosPerChar = nanosPerChar;
+                System.out.printf("  %5d KB: insertAnsi %8.1f ms, read %8.1f ms, export %8.1f ms (%.1f ns/char)%n",
+                        length / 1024, insert, read, export, nanosPerChar);
+            }
+            if (nanosPerChar > firstNanosPerChar * MAX_SLOWDOWN) {
+                System.out.printf("  NOT LINEAR: %.1fx slower per character%n", nanosPerChar / firstNanosPerChar);
+                linear = false;
+            }
+        }
+        if (!linear)
+            System.exit(1);
+    }
+
+    private static StyledDocument newDocument(AnsiEditorKit kit) {
+        return (StyledDocument) kit.createDefaultDocument();
+    }
+
+    /**
+     * Returns the best time in milliseconds of a few runs of a task.
+     */
+    private static double measure(Task task) throws Exception {
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+        }
+        return best;
+    }
+
+    private enum Input {
+        DIGITS("ESC[ followed by digits and semicolons without an end") {
+            @Override
+            String create(int length) {
+                var text = new StringBuilder(length).append("\u001b[");
+                while (text.length() < length) {
+                    text.append("1234567;");
+                }
+                return text.substring(0, length);
+            }
+        },
+        REPEATED_STARTS("Repeated ESC[ with digits without an end") {
+            @Override
+            String create(int length) {
+                var text = new StringBuilder(length);
+                while (text.length() < length) {
+                    text.append("\u001b[").append("0123456789;".repeat(40));
+                }
+                return text.substring(0, length);
+            }
+        },
+        BINARY("Random bytes with many ESC characters") {
+            @Override
+            String create(int length) {
+                var random = new java.util.Random(42);
+                var text = new StringBuilder(length);
+                String alphabet = "\u001b\u001b[[;;0123456789m\r\nAKx";
+                while (text.length() < length) {
+                    text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+                return text.toString();
+            }
+        };
+
+        final String description;
+
+        Input(String description) {
+            this.description = description;
+        }
+
+        abstract String create(int length);
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,142 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.StyledDocument;
+import java.io.ByteArrayInputStream;
+import java.io.CharArrayReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Compares the scalar scanner with the scanner used by the {@link AnsiEditorKit}, which is the vector scanner when
+ * the JVM is started with {@code --add-modules jdk.incubator.vector}. The scanners find all control characters of a
+ * log with mostly plain text, and of a log with an escape code every few words. Then the time of the paths using the
+ * scanner of the kit is measured: reading the logs with {@link AnsiEditorKit#read}, inserting them with
+ * {@link AnsiEditorKit#insertAnsi} and {@link AnsiEditorKit#insertAnsiParallel}, tokenizing them with
+ * {@link AnsiTokenizer#runs}, and exporting them with the {@link AnsiHtmlExporter}.
+ * <p>
+ * Run with {@code gradle scanBenchmark}, and with {@code gradle scalarScanBenchmark} to measure the same paths with the
+ * scalar scanner. The size of the logs in megabytes can be given as argument (default is 32).
+ */
+public class ScanBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+    private static final int DOCUMENT_ROUNDS = 3; // inserting into a document is slow, so it is measured less often
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        var scalar = new AnsiScanner.Scalar();
+        var scanner = AnsiScanner.get();
+        var kit = new AnsiEditorKit();
+        var exporter = new AnsiHtmlExporter();
+
+        System.out.printf("Scanner of the kit: %s%n", scanner.name());
+
+        for (var corpus : Corpus.values()) {
+            String ansiText = corpus.create(megabytes * 1024 * 1024);
+            byte[] bytes = ansiText.getBytes(StandardCharsets.UTF_8);
+            char[] chars = ansiText.toCharArray();
+            System.out.printf("%s, %d MB:%n", corpus.description, megabytes);
+
+            double scalarBytes = measure(() -> countControls(scalar, bytes));
+            double scannerBytes = measure(() -> countControls(scanner, bytes));
+            double scalarChars = measure(() -> countControls(scalar, chars));
+            double scannerChars = measure(() -> countControls(scanner, chars));
+            System.out.printf("  scan bytes: scalar %7.1f ms, %s %7.1f ms (speedup %.2fx)%n",
+                    scalarBytes, scanner.name(), scannerBytes, scalarBytes / scannerBytes);
+            System.out.printf("  scan chars: scalar %7.1f ms, %s %7.1f ms (speedup %.2fx)%n",
+                    scalarChars, scanner.name(), scannerChars, scalarChars / scannerChars);
+
+            double read = measure(() -> kit.read(new ByteArrayInputStream(bytes), newDocument(kit), 0), DOCUMENT_ROUNDS);
+            double insert = measure(() -> kit.insertAnsi(newDocument(kit), ansiText, 0), DOCUMENT_ROUNDS);
+            double insertParallel = measure(() -> kit.insertAnsiParallel(newDocument(kit), ansiText, 0),
+                    DOCUMENT_ROUNDS);
+            System.out.printf("  read %7.1f ms, insertAnsi %7.1f ms, insertAnsiParallel %7.1f ms%n",
+                    read, insert, insertParallel);
+            double tokenize = measure(() -> AnsiTokenizer.runs(ansiText).count());
+            double export = measure(() -> exporter.exportFragment(new CharArrayReader(chars), Writer.nullWriter()));
+            System.out.printf("  tokenize %7.1f ms, export %7.1f ms%n", tokenize, export);
+        }
+    }
+
+    private static int countControls(AnsiScanner scanner, byte[] bytes) {
+        int count = 0;
+        for (int i = scanner.indexOfControl(bytes, 0, bytes.length); i < bytes.length;
+             i = scanner.indexOfControl(bytes, i + 1, bytes.length)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static int countControls(AnsiScanner scanner, char[] chars) {
+        int count = 0;
+        for (int i = scanner.indexOfControl(chars, 0, chars.length); i < chars.length;
+             i = scanner.indexOfControl(chars, i + 1, chars.length)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static StyledDocument newDocument(AnsiEditorKit kit) {
+        return (StyledDocument) kit.createDefaultDocument();
+    }
+
+    /**
+     * Returns the average time in milliseconds for running a task after the warmup rounds.
+     */
+    private static double measure(Task task) throws Exception {
+        return measure(task, ROUNDS);
+    }
+
+    private static double measure(Task task, int rounds) throws Exception {
+        for (int i = 0; i < Math.min(WARMUP_ROUNDS, rounds); i++) {
+            task.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            task.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / rounds;
+    }
+
+    private enum Corpus {
+        PLAIN_HEAVY("Log with mostly plain text, like stack traces") {
+            @Override
+            String create(int length) {
+                var random = new Random(42);
+                var log = new StringBuilder(length + 256);
+                var builder = new AnsiTextBuilder(log);
+                while (log.length() < length) {
+                    builder.red().text("java.lang.IllegalStateException: Request " + random.nextInt(1_000_000)
+                            + " failed").reset().newline();
+                    for (int frame = 0; frame < 20; frame++) {
+                        builder.text("\tat com.example.service.RequestHandler$Worker.process(RequestHandler.java:"
+                                + random.nextInt(1000) + ")").newline();
+                    }
+                    builder.flush();
+                }
+                return log.toString();
+            }
+        },
+        CODE_HEAVY("Log with colored log levels and timestamps") {
+            @Override
+            String create(int length) {
+                return ParallelParseBenchmark.createLog(length);
+            }
+        };
+
+        final String description;
+
+        Corpus(String description) {
+            this.description = description;
+        }
+
+        abstract String create(int length);
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,80 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.BadLocationException;
+
+/**
+ * Measures the size of the spill file of a document with a memory budget, when text is continuously appended to the
+ * document and the scrollback is trimmed, like in a console that runs for a long time. The text is appended a few lines
+ * at a time, and the document is trimmed after every append, so the first chunk is trimmed a little every time.
+ * <p>
+ * The spill file must not grow with the amount of text appended, but only with the text that is kept. The benchmark
+ * exits with status 1, if the spill file grows bigger than {@link #MAX_FILE_RATIO} times the text kept by the
+ * document, plus a few chunks. The size is checked every {@link #CHECK_INTERVAL} appends.
+ * <p>
+ * Run with {@code gradle spillFileBenchmark}. The number of appends can be given as argument (default is 20000).
+ */
+public class SpillFileBenchmark {
+
+    private static final int MAX_LINES = 20_000;
+    private static final int LINES_PER_APPEND = 5;
+    private static final long MEMORY_BUDGET = 64 * 1024;
+    private static final int CHECK_INTERVAL = 10; // the memory stats count the elements, so they are not free
+    private static final int MAX_FILE_RATIO = 2;
+    private static final long SLACK_BYTES = 4L * AnsiContent.CHUNK_SIZE * 2; // a few UTF-16 chunks
+
+    public static void main(String[] args) throws Exception {
+        int appends = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        var kit = new AnsiEditorKit();
+        boolean bounded = true;
+
+        for (boolean compressed : new boolean[]{false, true}) {
+            System.out.printf("%s storage, %d appends of %d lines, keeping %d lines:%n",
+                    compressed ? "Compressed" : "Uncompressed", appends, LINES_PER_APPEND, MAX_LINES);
+            var doc = (AnsiDocument) kit.createDefaultDocument();
+            doc.setCompressedStorage(compressed);
+            doc.setMemoryBudget(MEMORY_BUDGET);
+            try {
+                long maxDiskBytes = 0;
+                long start = System.nanoTime();
+                for (int i = 1; i <= appends; i++) {
+                    append(kit, doc, i);
+                    doc.trimLines(MAX_LINES);
+                    if (i % CHECK_INTERVAL != 0)
+                        continue;
+
+                    var stats = doc.getMemoryStats();
+                    maxDiskBytes = Math.max(maxDiskBytes, stats.getDiskBytes());
+                    long maxBytes = MAX_FILE_RATIO * 2L * stats.getTextLength() + SLACK_BYTES;
+                    if (stats.getDiskBytes() > maxBytes) {
+                        System.out.printf("  NOT BOUNDED after %d appends: %d bytes on disk for %d chars%n",
+                                i, stats.getDiskBytes(), stats.getTextLength());
+                        bounded = false;
+                        break;
+                    }
+                    if (i % (appends / 4) == 0) {
+                        System.out.printf("  %7d appends: %s%n", i, stats);
+                    }
+                }
+                System.out.printf("  %.1f ms, at most %d bytes on disk%n", (System.nanoTime() - start) / 1e6,
+                        maxDiskBytes);
+            } finally {
+                doc.dispose();
+            }
+        }
+        if (!bounded)
+            System.exit(1);
+    }
+
+    private static void append(AnsiEditorKit kit, AnsiDocument doc, int append) throws BadLocationException {
+        var text = new StringBuilder();
+        var builder = new AnsiTextBuilder(text);
+        for (int line = 0; line < LINES_PER_APPEND; line++) {
+            builder.green().text("INFO").reset()
+                    .text(" append " + append + " line " + line + ": request handled in " + (append * 7 + line) % 997
+                            + " ms")
+                    .newline();
+        }
+        builder.flush();
+        kit.insertAnsi(doc, text.toString(), doc.getLength());
+    }
+}
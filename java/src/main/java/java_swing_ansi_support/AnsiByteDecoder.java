@@ -0,0 +1,185 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.StyledDocument;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Decodes ANSI text from a byte stream directly into a {@link StyledDocument}.
+ * <p>
+ * The escape codes are ASCII, so the decoder scans the raw bytes for escape codes and only decodes the text between
+ * them into characters. The text is inserted into the document chunk by chunk while reading, so the input is never
+ * read into memory as a whole. Carriage returns and CSI escape codes other than SGR codes are executed by an
+ * {@link AnsiDocumentWriter}.
+ * <p>
+ * This only works with charsets where the escape codes are encoded as ASCII bytes, like UTF-8 and ISO-8859-1.
+ */
+final class AnsiByteDecoder {
+
+    private static final byte CR = '\r';
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final AnsiEditorKit kit;
+    private final CharsetDecoder decoder;
+    private final AnsiScanner scanner = AnsiScanner.get();
+    private final AnsiTokenizer.AsciiChars codeChars = new AnsiTokenizer.AsciiChars();
+
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+
+    private AnsiDocumentWriter writer;
+    private AnsiStyleTable styles;
+    private int style;
+    private final IntBinaryOperator nextStyle = (from, parameter) -> styles.next(from, parameter);
+
+    AnsiByteDecoder(AnsiEditorKit kit, Charset charset) {
+        this.kit = kit;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Checks if the escape codes are encoded as plain ASCII bytes with a charset, so the bytes can be scanned for
+     * escape codes before decoding them.
+     */
+    static boolean isAsciiCompatible(Charset charset) {
+        var asciiChars = "\u001b[0123456789;m";
+        return charset.canEncode() && Arrays.equals(
+                asciiChars.getBytes(charset), asciiChars.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Reads ANSI text from an input stream, and inserts the text into a document at a specific offset.
+     *
+     * @return the offset in the document right after the inserted text.
+     */
+    int read(InputStream inputStream, StyledDocument doc, int offset) throws IOException, BadLocationException {
+        this.writer = new AnsiDocumentWriter(doc, offset);
+        this.styles = kit.acquireStyleTable();
+        try {
+            this.style = styles.styleOf(kit.initialAttributes(doc, offset));
+
+            decoder.reset();
+            bytes.clear();
+            chars.clear();
+
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                endOfInput = fill(inputStream);
+                bytes.flip();
+                decodeBytes(endOfInput);
+                bytes.compact();
+            }
+            insertChars();
+        } finally {
+            kit.releaseStyleTable(styles);
+        }
+        return writer.cursor();
+    }
+
+    /**
+     * Reads bytes from the input stream until the byte buffer is full or the end of the stream is reached.
+     *
+     * @return {@code true} if the end of the stream has been reached; {@code false} otherwise.
+     */
+    private boolean fill(InputStream inputStream) throws IOException {
+        while (bytes.hasRemaining()) {
+            int count = inputStream.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            if (count < 0)
+                return true;
+            bytes.position(bytes.position() + count);
+        }
+        return false;
+    }
+
+    /**
+     * Decodes the available bytes. Bytes that cannot be decoded yet, because an escape code or character is split
+     * across two chunks, are left in the buffer to be decoded with the next chunk.
+     */
+    private void decodeBytes(boolean endOfInput) throws BadLocationException {
+        byte[] array = bytes.array();
+        int limit = bytes.limit();
+
+        while (bytes.hasRemaining()) {
+            int pos = bytes.position();
+            int controlIndex = scanner.indexOfControl(array, pos, limit);
+            if (controlIndex > pos) {
+                decodeText(controlIndex, controlIndex < limit || endOfInput);
+                if (bytes.position() < controlIndex)
+                    return; // a character is split across two chunks
+                continue;
+            }
+            if (array[pos] == CR) {
+                if (pos + 1 == limit && !endOfInput && pos > 0)
+                    return; // a newline might follow in the next chunk
+                if (pos + 1 == limit || array[pos + 1] != '\n') {
+                    insertChars();
+                    writer.carriageReturn();
+                } // a carriage return before a newline is left out
+                bytes.position(pos + 1);
+                continue;
+            }
+            var codeText = codeChars.wrap(array, limit);
+            int codeEnd = AnsiTokenizer.matchCsiCode(codeText, pos, limit);
+            if (codeEnd == 0) {
+                if (!endOfInput && bytes.position() > 0)
+                    return; // the escape code might be split across two chunks
+                codeEnd = -1; // the buffer is full or at the end of the input, so it cannot be an escape code
+            }
+            if (codeEnd < 0) {
+                decodeText(pos + 1, true); // not an escape code, so the ESC is decoded as text
+            } else {
+                insertChars();
+                if (AnsiTokenizer.isSgrCode(codeText, pos, codeEnd)) {
+                    style = AnsiTokenizer.applySgrCode(style, codeText, pos, codeEnd, nextStyle);
+                } else {
+                    writer.command((char) array[codeEnd - 1], AnsiTokenizer.firstParameter(codeText, pos, codeEnd));
+                }
+                bytes.position(codeEnd);
+            }
+        }
+    }
+
+    /**
+     * Decodes the bytes from the current position up to an end index into the character buffer.
+     *
+     * @param complete {@code true} if the bytes up to the end index must be decoded completely, which is the case when
+     *                 an escape code or the end of the input follows. Incomplete characters are then decoded as
+     *                 malformed input; otherwise they are left in the buffer.
+     */
+    private void decodeText(int end, boolean complete) throws BadLocationException {
+        int limit = bytes.limit();
+        bytes.limit(end);
+        while (decoder.decode(bytes, chars, complete) == CoderResult.OVERFLOW) {
+            insertChars();
+        }
+        if (complete) {
+            while (decoder.flush(chars) == CoderResult.OVERFLOW) {
+                insertChars();
+            }
+            decoder.reset();
+        }
+        bytes.limit(limit);
+    }
+
+    /**
+     * Inserts the decoded characters into the document using the attributes of the current style.
+     */
+    private void insertChars() throws BadLocationException {
+        if (chars.position() > 0) {
+            writer.write(chars.array(), 0, chars.position(), styles.attributes(style));
+            chars.clear();
+        }
+    }
+}
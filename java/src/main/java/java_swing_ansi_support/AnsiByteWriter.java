@@ -0,0 +1,267 @@
+package java_swing_ansi_support;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The AnsiByteWriter writes ANSI text as UTF-8 encoded bytes directly to an {@link OutputStream} or a
+ * {@link ByteBuffer}, without encoding the text through an intermediate {@link String} or {@link java.io.Writer}.
+ * <p>
+ * Escape codes are written using the cached bytes of the {@link AnsiEscCode}, and runs of ASCII characters are copied
+ * straight into the buffer. Only non-ASCII characters go through the UTF-8 encoding.
+ * <p>
+ * Example of how to use the AnsiByteWriter:
+ * <pre>
+ *     try (var writer = new AnsiByteWriter(socket.getOutputStream())) {
+ *         writer.esc(AnsiEscCode.RED).text("error").esc(AnsiEscCode.RESET).text("\n");
+ *     }
+ * </pre>
+ * The AnsiByteWriter is also an {@link Appendable}, so it can be used as the target of an {@link AnsiTextBuilder}.
+ */
+public class AnsiByteWriter implements Appendable, Flushable, Closeable {
+
+    private final OutputStream outputStream; // null, when writing to a ByteBuffer given by the user
+    private final ByteBuffer buffer;
+    private final int startPosition; // the position of the ByteBuffer given by the user, when the writer was created
+
+    /**
+     * Creates an AnsiByteWriter that writes to an {@link OutputStream} using a buffer of 8 KB.
+     *
+     * @param outputStream is the {@link OutputStream} to write to.
+     */
+    public AnsiByteWriter(OutputStream outputStream) {
+        this(outputStream, 8 * 1024);
+    }
+
+    /**
+     * Creates an AnsiByteWriter that writes to an {@link OutputStream}.
+     *
+     * @param outputStream is the {@link OutputStream} to write to.
+     * @param bufferSize   is the size of the buffer in bytes used before writing to the output stream. Must be >= 4.
+     */
+    public AnsiByteWriter(OutputStream outputStream, int bufferSize) {
+        if (outputStream == null)
+            throw new IllegalArgumentException("outputStream cannot be null");
+        if (bufferSize < 4)
+            throw new IllegalArgumentException("bufferSize must be >= 4. Was: " + bufferSize);
+        this.outputStream = outputStream;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+        this.startPosition = 0;
+    }
+
+    /**
+     * Creates an AnsiByteWriter that writes to a {@link ByteBuffer}, starting from its current position.
+     * The buffer can be reused by clearing it, when its content has been consumed.
+     *
+     * @param byteBuffer is the {@link ByteBuffer} to write to.
+     * @throws BufferOverflowException when writing more bytes than what is remaining in the buffer.
+     */
+    public AnsiByteWriter(ByteBuffer byteBuffer) {
+        if (byteBuffer == null)
+            throw new IllegalArgumentException("byteBuffer cannot be null");
+        this.outputStream = null;
+        this.buffer = byteBuffer;
+        this.startPosition = byteBuffer.position();
+    }
+
+    /**
+     * Writes an {@link AnsiEscCode}.
+     *
+     * @param escCode is the {@link AnsiEscCode} to write.
+     * @return an instance of this writer used for chaining methods.
+     */
+    public AnsiByteWriter esc(AnsiEscCode escCode) throws IOException {
+        return write(escCode.escBytes());
+    }
+
+    /**
+     * Writes plain text.
+     *
+     * @param text is the plain text to write.
+     * @return an instance of this writer used for chaining methods.
+     */
+    public AnsiByteWriter text(CharSequence text) throws IOException {
+        return append(text, 0, text.length());
+    }
+
+    /**
+     * Writes raw bytes, e.g. text that is already UTF-8 encoded.
+     *
+     * @param bytes is the bytes to write.
+     * @return an instance of this writer used for chaining methods.
+     */
+    public AnsiByteWriter write(byte[] bytes) throws IOException {
+        return write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes raw bytes, e.g. text that is already UTF-8 encoded.
+     *
+     * @param bytes  is the array containing the bytes to write.
+     * @param offset is the offset of the first byte to write.
+     * @param length is the number of bytes to write.
+     * @return an instance of this writer used for chaining methods.
+     */
+    public AnsiByteWriter write(byte[] bytes, int offset, int length) throws IOException {
+        if (outputStream != null) {
+            while (length > buffer.remaining()) {
+                int count = buffer.remaining();
+                buffer.put(bytes, offset, count);
+                offset += count;
+                length -= count;
+                drain();
+            }
+        }
+        buffer.put(bytes, offset, length);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AnsiByteWriter append(CharSequence csq) throws IOException {
+        if (csq == null)
+            csq = "null";
+        return append(csq, 0, csq.length());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AnsiByteWriter append(CharSequence csq, int start, int end) throws IOException {
+        if (csq == null)
+            csq = "null";
+        int i = start;
+        while (i < end) {
+            i = appendAscii(csq, i, end);
+            if (i == end)
+                break;
+
+            char ch = csq.charAt(i);
+            if (ch < 0x80) {
+                drain(); // the buffer is full
+            } else if (Character.isHighSurrogate(ch) && i + 1 < end && Character.isLowSurrogate(csq.charAt(i + 1))) {
+                putUtf8(Character.toCodePoint(ch, csq.charAt(i + 1)));
+                i += 2;
+            } else {
+                putUtf8(ch);
+                i++;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AnsiByteWriter append(char ch) throws IOException {
+        if (ch < 0x80) {
+            if (!buffer.hasRemaining())
+                drain();
+            buffer.put((byte) ch);
+        } else {
+            putUtf8(ch);
+        }
+        return this;
+    }
+
+    /**
+     * Writes the buffered bytes to the output stream and flushes it.
+     * This method has no effect when writing to a {@link ByteBuffer}.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (outputStream != null) {
+            drain();
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the output stream and closes it.
+     * This method has no effect when writing to a {@link ByteBuffer}.
+     */
+    @Override
+    public void close() throws IOException {
+        if (outputStream != null) {
+            try (outputStream) {
+                drain();
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes written to the {@link ByteBuffer}, from the position of the buffer when the writer was created
+     * up to the current position, decoded as UTF-8. If the buffer has been cleared since, the bytes are returned from
+     * position 0. When writing to an {@link OutputStream}, only the bytes not yet written to the stream are returned.
+     */
+    @Override
+    public String toString() {
+        int end = buffer.position();
+        var bytes = buffer.duplicate().position(end < startPosition ? 0 : startPosition).limit(end);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    /**
+     * Copies characters into the buffer while they are ASCII and there is room in the buffer.
+     *
+     * @return the index of the first character that was not copied.
+     */
+    private int appendAscii(CharSequence csq, int start, int end) {
+        int i = start;
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int pos = buffer.arrayOffset() + buffer.position();
+            int limit = Math.min(buffer.arrayOffset() + buffer.limit(), pos + (end - start));
+            char ch;
+            while (pos < limit && (ch = csq.charAt(i)) < 0x80) {
+                array[pos++] = (byte) ch;
+                i++;
+            }
+            buffer.position(pos - buffer.arrayOffset());
+        } else {
+            char ch;
+            while (i < end && buffer.hasRemaining() && (ch = csq.charAt(i)) < 0x80) {
+                buffer.put((byte) ch);
+                i++;
+            }
+        }
+        return i;
+    }
+
+    private void putUtf8(int codePoint) throws IOException {
+        if (buffer.remaining() < 4 && outputStream != null)
+            drain();
+
+        if (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE) {
+            buffer.put((byte) '?'); // unpaired surrogate
+        } else if (codePoint < 0x800) {
+            buffer.put((byte) (0xc0 | (codePoint >> 6)));
+            buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+        } else if (codePoint < 0x10000) {
+            buffer.put((byte) (0xe0 | (codePoint >> 12)));
+            buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+            buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+        } else {
+            buffer.put((byte) (0xf0 | (codePoint >> 18)));
+            buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+            buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+            buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+        }
+    }
+
+    private void drain() throws IOException {
+        if (outputStream == null)
+            throw new BufferOverflowException();
+        outputStream.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+        buffer.clear();
+    }
+}
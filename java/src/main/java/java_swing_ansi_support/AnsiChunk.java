@@ -0,0 +1,120 @@
+package java_swing_ansi_support;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A chunk of ANSI text, which is tokenized into text, SGR escape codes, and control codes independently of other
+ * chunks. The control codes are carriage returns and other CSI escape codes, like cursor movements. A carriage return
+ * right before a newline is left out.
+ * <p>
+ * Chunks are split at line boundaries, as escape codes never contain a newline. The style set by the escape codes is
+ * not resolved by the chunk, as it depends on the escape codes in the preceding chunks.
+ * <p>
+ * The escape codes are matched by the {@link AnsiTokenizer} with a hand-written scanner instead of a regular
+ * expression, which visits each character at most a few times without backtracking. A sequence longer than
+ * {@link AnsiEscCode#MAX_ESC_CODE_LENGTH} is not recognized as an escape code, so tokenizing takes linear time even
+ * for garbage input like binary data.
+ */
+final class AnsiChunk {
+
+    final int start;
+    final int end;
+
+    // The type, start index, and end index of each token, where the type is one of the token types of the AnsiTokenizer
+    private int[] tokens = new int[96];
+    private int tokenCount;
+
+    AnsiChunk(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Splits an ANSI text into chunks of approximately a specific size, right after a newline.
+     */
+    static AnsiChunk[] split(String ansiText, int chunkSize) {
+        var chunks = new AnsiChunk[Math.max(1, ansiText.length() / chunkSize + 1)];
+        int count = 0;
+        int start = 0;
+        while (start < ansiText.length()) {
+            int end = start + chunkSize < ansiText.length() ? ansiText.indexOf('\n', start + chunkSize) + 1 : 0;
+            if (end == 0)
+                end = ansiText.length();
+            if (count == chunks.length)
+                chunks = Arrays.copyOf(chunks, count * 2);
+            chunks[count++] = new AnsiChunk(start, end);
+            start = end;
+        }
+        return Arrays.copyOf(chunks, count);
+    }
+
+    /**
+     * Tokenizes all chunks in parallel using a fork/join pool.
+     */
+    static void tokenizeAll(AnsiChunk[] chunks, String ansiText, ForkJoinPool pool) {
+        if (chunks.length > 0)
+            pool.invoke(new TokenizeTask(chunks, 0, chunks.length, ansiText));
+    }
+
+    /**
+     * Tokenizes the chunk into text, SGR escape codes, and control codes with the {@link AnsiTokenizer}.
+     */
+    void tokenize(String ansiText) {
+        tokenCount = 0;
+        var cursor = new AnsiTokenizer.TokenCursor().reset(ansiText, start, end, true);
+        while (cursor.next()) {
+            add(cursor.type(), cursor.start(), cursor.end());
+        }
+    }
+
+    private void add(int type, int tokenStart, int tokenEnd) {
+        if (tokenCount * 3 == tokens.length)
+            tokens = Arrays.copyOf(tokens, tokens.length * 2);
+        tokens[tokenCount * 3] = type;
+        tokens[tokenCount * 3 + 1] = tokenStart;
+        tokens[tokenCount * 3 + 2] = tokenEnd;
+        tokenCount++;
+    }
+
+    int tokenCount() {
+        return tokenCount;
+    }
+
+    int tokenType(int token) {
+        return tokens[token * 3];
+    }
+
+    int tokenStart(int token) {
+        return tokens[token * 3 + 1];
+    }
+
+    int tokenEnd(int token) {
+        return tokens[token * 3 + 2];
+    }
+
+    private static final class TokenizeTask extends RecursiveAction {
+        private final AnsiChunk[] chunks;
+        private final int from;
+        private final int to;
+        private final String ansiText;
+
+        TokenizeTask(AnsiChunk[] chunks, int from, int to, String ansiText) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.ansiText = ansiText;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                chunks[from].tokenize(ansiText);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TokenizeTask(chunks, from, mid, ansiText), new TokenizeTask(chunks, mid, to, ansiText));
+            }
+        }
+    }
+}
@@ -0,0 +1,1252 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The content of an {@link AnsiDocument}, which stores the text in chunks of up to {@link #CHUNK_SIZE} characters.
+ * <p>
+ * Console output is nearly all ASCII, so like compact strings, a chunk keeps its text as Latin-1 bytes when all its
+ * characters fit into a byte, and is widened to UTF-16 chars when a character that does not fit is inserted. This
+ * halves the memory of the text compared to the {@code GapContent} of Swing, which always stores UTF-16 chars.
+ * <p>
+ * With off-heap storage, the text of full chunks is moved into direct buffers outside the Java heap, except for the last
+ * {@link #HOT_CHUNKS} chunks that text is appended to. A chunk is moved back to the heap when its text is modified, and
+ * moved off-heap again afterwards. The off-heap memory is freed as soon as a chunk is removed, e.g. when trimming the
+ * scrollback, or when the content is disposed.
+ * <p>
+ * With compressed storage, the text of the same chunks is compressed with {@link Deflater}, which shrinks typical
+ * console output several times. A compressed chunk is decompressed when it is read, e.g. when it is scrolled into view
+ * or searched, and the last {@link #LOADED_CHUNKS} decompressed chunks are kept, so repeated reads of the same
+ * lines do not decompress them again. Compressed chunks are stored off-heap when both are enabled.
+ * <p>
+ * With a memory budget, the oldest chunks are spilled to a temporary file when the stored chunks take up more memory
+ * than the budget. Each spilled chunk keeps its offset in the file, so it is read back with a positional read, and is
+ * then kept like a decompressed chunk. Chunks are appended to the file, except that the space of the last removed
+ * chunk is reused by the next spilled chunk that fits, which is typically the first chunk spilled again after it was
+ * partly trimmed. When more than half of the file is the space of removed chunks, the spilled chunks are moved to the
+ * start of the file, and the file is truncated, so the file stays at most twice the size of the spilled chunks. The
+ * file is deleted when the content is disposed.
+ * <p>
+ * Positions are tracked the same way as by the {@code GapContent}: the marks are kept sorted by an index, where the
+ * marks after a virtual gap are offset by the size of the gap. Moving the gap to an insert or remove only updates the
+ * marks between the old and the new gap, so appending text to the end of a document is cheap.
+ * <p>
+ * A {@link Snapshot} of the text is taken in O(1) time. Appending text does not change the text of a snapshot, and
+ * neither does removing text from the start, which only removes the text from the snapshot too. Other modifications
+ * of the text of a snapshot invalidate it. The content is modified and read while synchronized on the content, so a
+ * snapshot can be read by any thread without holding the lock of the document.
+ */
+final class AnsiContent implements AbstractDocument.Content {
+
+    /**
+     * The maximum number of characters of a chunk.
+     */
+    static final int CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * The number of chunks at the end of the text, which are kept on the heap and uncompressed with off-heap or
+     * compressed storage.
+     */
+    static final int HOT_CHUNKS = 2;
+
+    /**
+     * The number of recently loaded chunks, which are kept decompressed with compressed storage, and in memory when
+     * they have been spilled to disk.
+     */
+    static final int LOADED_CHUNKS = 8;
+
+    private static final char[] EMPTY = new char[0];
+    private static final long INITIAL_GAP_SIZE = 1L << 40; // more than can ever be inserted
+
+    private Chunk[] chunks = new Chunk[16];
+    private int[] chunkStarts = new int[16];
+    private int chunkCount;
+    private int length;
+    private boolean offHeap;
+    private boolean compression;
+    private long memoryBudget = Long.MAX_VALUE;
+    private long sealedBytes; // the memory used by the sealed chunks that are not spilled
+
+    // The marks sorted by index, and the virtual gap in the index space of the marks
+    private MarkData[] marks = new MarkData[64];
+    private int markCount;
+    private long gapStart;
+    private long gapEnd = INITIAL_GAP_SIZE;
+
+    private final ReferenceQueue<StickyPosition> queue = new ReferenceQueue<>();
+    private int unusedMarks;
+
+    private final char[] buffer = new char[CHUNK_SIZE];
+
+    // The buffers for sealing chunks, and the recently loaded chunks, with the most recent first
+    private final byte[] sealBuffer = new byte[CHUNK_SIZE * 2];
+    private byte[] compressBuffer;
+    private Deflater deflater;
+    private Inflater inflater;
+    private final Chunk[] loadedChunks = new Chunk[LOADED_CHUNKS];
+
+    // The file with the spilled chunks, and the index of the first chunk that might not be spilled
+    private FileChannel spillFile;
+    private long spillFileSize;
+    private long spilledBytes; // the bytes of the spilled chunks in the file, the rest is space of removed chunks
+    private long freeSpillOffset = -1; // the space of the last removed spilled chunk, or -1 if there is none
+    private int freeSpillSize;
+    private int spilledChunkCount;
+    private int spillIndex;
+    private final byte[] spillBuffer = new byte[CHUNK_SIZE * 2];
+
+    // The number of characters removed from the start of the text, and the snapshots that might still be read. The
+    // text of a snapshot is at fixed positions counted from the original start of the text.
+    private long removedChars;
+    private final List<WeakReference<Snapshot>> snapshots = new ArrayList<>();
+
+    /**
+     * Creates a content with the newline, which ends every document.
+     */
+    AnsiContent() {
+        insert(0, "\n");
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where > length)
+            throw new BadLocationException("Invalid insert", length);
+        insert(where, str);
+        return new InsertUndo(where, str.length());
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems >= length)
+            throw new BadLocationException("Invalid remove", length + 1);
+        var edit = new RemoveUndo(where, getString(where, nitems));
+        delete(where, nitems);
+        return edit;
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        var segment = new Segment();
+        getChars(where, len, segment);
+        return new String(segment.array, segment.offset, segment.count);
+    }
+
+    /**
+     * Retrieves a part of the content. If the part is within a UTF-16 chunk, or the segment allows a partial return,
+     * the chars of a UTF-16 chunk are returned without copying them. Latin-1 chunks are widened into a new array.
+     * Compressed and spilled chunks are loaded first, which is synchronized, as several threads may read the content.
+     */
+    @Override
+    public synchronized void getChars(int where, int len, Segment txt) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length)
+            throw new BadLocationException("Invalid location", where < 0 ? -1 : length + 1);
+        if (len == 0) {
+            txt.array = EMPTY;
+            txt.offset = 0;
+            txt.count = 0;
+            return;
+        }
+        int index = chunkIndexOf(where);
+        var chunk = chunks[index];
+        int local = where - chunkStarts[index];
+        int available = chunk.length - local;
+        int count = txt.isPartialReturn() ? Math.min(len, available) : len;
+        load(chunk);
+        if (chunk.utf16 != null && count <= available) {
+            txt.array = chunk.utf16;
+            txt.offset = local;
+            txt.count = count;
+            return;
+        }
+        var array = new char[count];
+        for (int copied = 0; copied < count; index++, local = 0) {
+            chunk = chunks[index];
+            int n = Math.min(count - copied, chunk.length - local);
+            load(chunk);
+            chunk.getChars(local, local + n, array, copied);
+            copied += n;
+        }
+        txt.array = array;
+        txt.offset = 0;
+        txt.count = count;
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length)
+            throw new BadLocationException("Invalid position", offset);
+        while (queue.poll() != null) {
+            unusedMarks++;
+        }
+        if (unusedMarks > Math.max(5, markCount / 10))
+            removeUnusedMarks();
+
+        long index = indexOf(offset);
+        int sortIndex = findMark(index);
+        if (sortIndex < markCount && marks[sortIndex].index == index) {
+            var position = marks[sortIndex].get();
+            if (position != null)
+                return position; // the marks are shared by positions with the same offset
+        }
+        var position = new StickyPosition();
+        position.mark = new MarkData(index, position, queue);
+        if (markCount == marks.length)
+            marks = Arrays.copyOf(marks, markCount * 2);
+        System.arraycopy(marks, sortIndex, marks, sortIndex + 1, markCount - sortIndex);
+        marks[sortIndex] = position.mark;
+        markCount++;
+        return position;
+    }
+
+    /**
+     * Checks if the text of the chunks before the last {@link #HOT_CHUNKS} chunks is stored off-heap.
+     */
+    boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Sets if the text of the chunks before the last {@link #HOT_CHUNKS} chunks is stored off-heap, and moves the
+     * existing chunks accordingly.
+     */
+    synchronized void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+        resealChunks();
+    }
+
+    /**
+     * Checks if the text of the chunks before the last {@link #HOT_CHUNKS} chunks is compressed.
+     */
+    boolean isCompressed() {
+        return compression;
+    }
+
+    /**
+     * Sets if the text of the chunks before the last {@link #HOT_CHUNKS} chunks is compressed, and compresses or
+     * decompresses the existing chunks accordingly.
+     */
+    synchronized void setCompressed(boolean compressed) {
+        this.compression = compressed;
+        resealChunks();
+    }
+
+    /**
+     * Frees the off-heap memory of the chunks, deletes the spill file, and removes the text. The content cannot be used
+     * afterwards, and the snapshots are invalidated.
+     */
+    synchronized void dispose() {
+        for (var reference : snapshots) {
+            var snapshot = reference.get();
+            if (snapshot != null)
+                snapshot.modified = true;
+        }
+        snapshots.clear();
+        for (int i = 0; i < chunkCount; i++) {
+            chunks[i].free();
+            chunks[i] = null;
+        }
+        Arrays.fill(loadedChunks, null);
+        chunkCount = 0;
+        length = 0;
+        sealedBytes = 0;
+        spilledChunkCount = 0;
+        spilledBytes = 0;
+        freeSpillOffset = -1;
+        if (deflater != null)
+            deflater.end();
+        if (inflater != null)
+            inflater.end();
+        if (spillFile != null) {
+            try {
+                spillFile.close(); // deletes the file
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                spillFile = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum number of bytes of memory used by the sealed chunks, or {@link Long#MAX_VALUE} if no chunks
+     * are spilled to disk.
+     */
+    long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the maximum number of bytes of memory used by the sealed chunks, i.e. the chunks before the last
+     * {@link #HOT_CHUNKS} chunks. The oldest chunks are spilled to disk, when the sealed chunks take up more memory.
+     * Chunks that have already been spilled stay on disk.
+     */
+    synchronized void setMemoryBudget(long maxBytes) {
+        boolean wasSealing = isSealing();
+        this.memoryBudget = maxBytes;
+        if (isSealing() != wasSealing)
+            resealChunks();
+        spillChunksOverBudget();
+    }
+
+    /**
+     * Returns the number of chunks spilled to disk.
+     */
+    int getSpilledChunkCount() {
+        return spilledChunkCount;
+    }
+
+    /**
+     * Returns the size of the file with the spilled chunks, which includes the space of removed chunks until it is
+     * reused, or the file is compacted.
+     */
+    long getDiskBytes() {
+        return spillFileSize;
+    }
+
+    /**
+     * Returns the number of chunks of the text.
+     */
+    int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Returns the number of chunks with the text stored as Latin-1 bytes.
+     */
+    synchronized int getLatin1ChunkCount() {
+        int count = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            if (chunks[i].isLatin1())
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of chunks with compressed text.
+     */
+    synchronized int getCompressedChunkCount() {
+        int count = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            if (chunks[i].compressed)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns an estimate of the number of bytes used on the heap by the positions, assuming a 64-bit JVM with
+     * compressed references. A position and its mark take up about 56 bytes, and the array of the marks 4 bytes per
+     * mark.
+     */
+    synchronized long getPositionBytes() {
+        return markCount * 56L + marks.length * 4L;
+    }
+
+    /**
+     * Returns the number of bytes allocated on the heap for storing the text, including the loaded chunks.
+     */
+    synchronized long getTextBytes() {
+        long bytes = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            bytes += chunks[i].capacityBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of bytes allocated off-heap for storing the text.
+     */
+    synchronized long getOffHeapBytes() {
+        long bytes = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            bytes += chunks[i].offHeapBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Takes a snapshot of the text without the newline ending every document.
+     */
+    synchronized Snapshot snapshot() {
+        var snapshot = new Snapshot(removedChars, removedChars + length - 1);
+        snapshots.add(new WeakReference<>(snapshot));
+        return snapshot;
+    }
+
+    /**
+     * Checks if the text of a snapshot at and after a position counted from the original start of the text can be read.
+     */
+    synchronized boolean isReadable(Snapshot snapshot, long position) {
+        return !snapshot.modified && position >= removedChars;
+    }
+
+    /**
+     * Copies the text of a snapshot at a position counted from the original start of the text into an array.
+     *
+     * @throws ConcurrentModificationException if the snapshot has been invalidated, or the text has been removed.
+     */
+    synchronized void getChars(Snapshot snapshot, long position, int count, char[] dst, int dstOffset) {
+        if (!isReadable(snapshot, position))
+            throw new ConcurrentModificationException("The text of the snapshot has been modified");
+        if (count == 0)
+            return;
+        int where = (int) (position - removedChars);
+        int index = chunkIndexOf(where);
+        int local = where - chunkStarts[index];
+        for (int copied = 0; copied < count; index++, local = 0) {
+            var chunk = chunks[index];
+            int n = Math.min(count - copied, chunk.length - local);
+            load(chunk);
+            chunk.getChars(local, local + n, dst, dstOffset + copied);
+            copied += n;
+        }
+    }
+
+    // --- text ---------------------------------------------------------------------------------------------------------
+
+    private synchronized void insert(int where, String str) {
+        int n = str.length();
+        if (n == 0)
+            return;
+        invalidateSnapshots(removedChars + where);
+        moveGap(where);
+        if (where == 0) {
+            // Marks at offset 0 stay at the start of the document
+            for (int i = 0; i < markCount && marks[i].index == gapEnd; i++) {
+                marks[i].index = 0;
+            }
+        }
+        gapStart += n;
+
+        if (chunkCount == 0) {
+            addChunks(0, str, 0, n);
+        } else {
+            int index = chunkIndexOf(where);
+            if (index > 0 && where == chunkStarts[index] && chunks[index - 1].length < CHUNK_SIZE)
+                index--; // append to the end of the chunk before, if there is room
+            var chunk = chunks[index];
+            int local = where - chunkStarts[index];
+            spillIndex = Math.min(spillIndex, index);
+            unseal(chunk);
+            if (chunk.length + n <= CHUNK_SIZE) {
+                str.getChars(0, n, buffer, 0);
+                chunk.insert(local, buffer, n);
+                updateChunkStarts(index + 1);
+                sealColdChunks(index, index + 1);
+            } else {
+                // Split the chunk at the insert, and add the inserted text and the rest of the chunk as new chunks
+                var rest = new char[chunk.length - local];
+                chunk.getChars(local, chunk.length, rest, 0);
+                chunk.delete(local, chunk.length);
+                int fill = Math.min(n, CHUNK_SIZE - local);
+                str.getChars(0, fill, buffer, 0);
+                chunk.insert(local, buffer, fill);
+                int added = addChunks(index + 1, str, fill, n);
+                added += addChunks(index + 1 + added, new String(rest), 0, rest.length);
+                sealColdChunks(index, index + 1 + added);
+            }
+        }
+        length += n;
+        compactSpillFile();
+    }
+
+    /**
+     * Adds chunks with a part of a string at an index of the chunks.
+     *
+     * @return the number of chunks added.
+     */
+    private int addChunks(int index, String str, int start, int end) {
+        int added = (end - start + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (added == 0)
+            return 0;
+        if (chunkCount + added > chunks.length) {
+            int capacity = Math.max(chunks.length * 2, chunkCount + added);
+            chunks = Arrays.copyOf(chunks, capacity);
+            chunkStarts = Arrays.copyOf(chunkStarts, capacity);
+        }
+        System.arraycopy(chunks, index, chunks, index + added, chunkCount - index);
+        System.arraycopy(chunkStarts, index, chunkStarts, index + added, chunkCount - index);
+        chunkCount += added;
+        for (int i = 0; i < added; i++) {
+            int from = start + i * CHUNK_SIZE;
+            int to = Math.min(end, from + CHUNK_SIZE);
+            str.getChars(from, to, buffer, 0);
+            chunks[index + i] = new Chunk(buffer, to - from);
+        }
+        updateChunkStarts(index);
+        return added;
+    }
+
+    private synchronized void delete(int where, int n) {
+        if (n == 0)
+            return;
+        if (where == 0) {
+            removedChars += n; // the snapshots keep the positions of the text after the removed text
+        } else {
+            invalidateSnapshots(removedChars + where);
+        }
+        moveGap(where);
+        long newGapEnd = gapEnd + n;
+        for (int i = findMark(gapEnd); i < markCount && marks[i].index < newGapEnd; i++) {
+            marks[i].index = newGapEnd; // the marks in the removed text move to the start of the removal
+        }
+        gapEnd = newGapEnd;
+
+        int first = chunkIndexOf(where);
+        int local = where - chunkStarts[first];
+        int removedChunks = 0;
+        for (int index = first, remaining = n; remaining > 0; index++, local = 0) {
+            var chunk = chunks[index];
+            int count = Math.min(remaining, chunk.length - local);
+            if (count == chunk.length) {
+                forget(chunk);
+                release(chunk);
+                chunk.free();
+                chunks[index] = null;
+                removedChunks++;
+            } else {
+                unseal(chunk);
+                chunk.delete(local, local + count);
+            }
+            remaining -= count;
+        }
+        if (removedChunks > 0) {
+            int to = first;
+            for (int from = first; from < chunkCount; from++) {
+                if (chunks[from] != null)
+                    chunks[to++] = chunks[from];
+            }
+            Arrays.fill(chunks, to, chunkCount, null);
+            chunkCount = to;
+        }
+        length -= n;
+        spillIndex = Math.min(spillIndex, first);
+        updateChunkStarts(first);
+        sealColdChunks(first, first + 2); // the first and the last chunk of the removal might be modified
+        compactSpillFile();
+    }
+
+    /**
+     * Invalidates the snapshots with text after a modified position, and drops the snapshots that are no longer used.
+     */
+    private void invalidateSnapshots(long position) {
+        snapshots.removeIf(reference -> {
+            var snapshot = reference.get();
+            if (snapshot != null && position < snapshot.end)
+                snapshot.modified = true;
+            return snapshot == null || snapshot.modified;
+        });
+    }
+
+    /**
+     * Checks if the chunks before the last {@link #HOT_CHUNKS} chunks are sealed, i.e. the content uses off-heap or
+     * compressed storage, or has a memory budget.
+     */
+    private boolean isSealing() {
+        return offHeap || compression || memoryBudget != Long.MAX_VALUE;
+    }
+
+    /**
+     * Seals modified chunks and chunks that are no longer among the hot chunks, if the content seals chunks, and
+     * spills the oldest chunks to disk, if they take up more memory than the budget.
+     */
+    private void sealColdChunks(int modifiedFrom, int modifiedTo) {
+        if (!isSealing())
+            return;
+        int hotStart = chunkCount - HOT_CHUNKS;
+        for (int i = modifiedFrom; i < Math.min(modifiedTo, hotStart); i++) {
+            seal(chunks[i]);
+        }
+        for (int i = hotStart - 1; i >= 0 && !chunks[i].isSealed(); i--) {
+            seal(chunks[i]);
+        }
+        spillChunksOverBudget();
+    }
+
+    /**
+     * Stores the chunks again after the storage has been changed, one chunk at a time, so the text of all chunks is
+     * never on the heap at the same time. Spilled chunks stay on disk.
+     */
+    private void resealChunks() {
+        int hotStart = chunkCount - HOT_CHUNKS;
+        for (int i = 0; i < chunkCount; i++) {
+            if (chunks[i].isSpilled())
+                continue;
+            unseal(chunks[i]);
+            if (i < hotStart && isSealing())
+                seal(chunks[i]);
+        }
+        spillIndex = 0;
+    }
+
+    /**
+     * Seals the text of a chunk into a buffer of the exact size, which is compressed with compressed storage, unless
+     * the text does not compress, and allocated off-heap with off-heap storage.
+     */
+    private void seal(Chunk chunk) {
+        if (chunk.isSealed())
+            return;
+        boolean latin1 = chunk.latin1 != null;
+        byte[] bytes = chunk.latin1;
+        int size = chunk.length;
+        if (!latin1) {
+            ByteBuffer.wrap(sealBuffer).asCharBuffer().put(chunk.utf16, 0, chunk.length);
+            bytes = sealBuffer;
+            size = chunk.length * 2;
+        }
+        boolean compressed = false;
+        if (compression) {
+            if (deflater == null) {
+                deflater = new Deflater(Deflater.BEST_SPEED);
+                inflater = new Inflater();
+                compressBuffer = new byte[CHUNK_SIZE * 2];
+            }
+            deflater.reset();
+            deflater.setInput(bytes, 0, size);
+            deflater.finish();
+            int compressedSize = 0;
+            while (!deflater.finished() && compressedSize < size - 1) {
+                compressedSize += deflater.deflate(compressBuffer, compressedSize, size - 1 - compressedSize);
+            }
+            if (deflater.finished()) {
+                compressed = true;
+                bytes = compressBuffer;
+                size = compressedSize;
+            }
+        }
+        ByteBuffer sealed;
+        if (offHeap) {
+            sealed = AnsiDirectMemory.allocate(size);
+            sealed.put(0, bytes, 0, size);
+        } else {
+            sealed = ByteBuffer.wrap(Arrays.copyOf(bytes, size));
+        }
+        chunk.seal(sealed, latin1, compressed);
+        sealedBytes += size;
+    }
+
+    /**
+     * Unseals a chunk, so its text can be modified.
+     */
+    private void unseal(Chunk chunk) {
+        if (!chunk.isSealed())
+            return;
+        load(chunk);
+        forget(chunk);
+        release(chunk);
+        chunk.unseal();
+    }
+
+    /**
+     * Updates the memory used by the sealed chunks and the spilled chunks, before a chunk is unsealed or freed.
+     */
+    private void release(Chunk chunk) {
+        if (chunk.sealed != null)
+            sealedBytes -= chunk.sealed.capacity();
+        if (!chunk.isSpilled())
+            return;
+        spilledBytes -= chunk.spillSize;
+        freeSpillOffset = chunk.spillOffset;
+        freeSpillSize = chunk.spillSize;
+        if (--spilledChunkCount == 0) {
+            try {
+                spillFile.truncate(0); // no spilled chunks are left, so the space of the removed chunks is reused
+                spillFileSize = 0;
+                freeSpillOffset = -1;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Spills the oldest sealed chunks to disk, until the sealed chunks no longer take up more memory than the budget.
+     */
+    private void spillChunksOverBudget() {
+        int hotStart = chunkCount - HOT_CHUNKS;
+        while (sealedBytes > memoryBudget && spillIndex < hotStart) {
+            var chunk = chunks[spillIndex++];
+            if (chunk.sealed != null)
+                spill(chunk);
+        }
+    }
+
+    /**
+     * Writes the sealed text of a chunk to the spill file, and frees its memory. The text is written into the space of
+     * the last removed chunk, if it fits, and is appended to the file otherwise.
+     */
+    private void spill(Chunk chunk) {
+        try {
+            if (spillFile == null) {
+                var path = Files.createTempFile("ansi-scrollback", ".tmp");
+                spillFile = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            var bytes = chunk.sealed.duplicate().clear();
+            long offset;
+            if (freeSpillOffset >= 0 && bytes.capacity() <= freeSpillSize) {
+                offset = freeSpillOffset;
+                freeSpillOffset = -1;
+            } else {
+                offset = spillFileSize;
+                spillFileSize += bytes.capacity();
+            }
+            writeSpilled(bytes, offset);
+            spilledBytes += bytes.capacity();
+            sealedBytes -= bytes.capacity();
+            spilledChunkCount++;
+            chunk.spill(offset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Moves the spilled chunks to the start of the spill file in the order of their offsets, and truncates the file,
+     * when more than half of the file is the space of removed chunks. A chunk is read before it is written to a lower
+     * offset, so moving it never overwrites a chunk that has not been moved yet.
+     */
+    private void compactSpillFile() {
+        long removedBytes = spillFileSize - spilledBytes;
+        if (removedBytes <= spilledBytes || removedBytes < CHUNK_SIZE)
+            return;
+        var spilled = new Chunk[spilledChunkCount];
+        int count = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            if (chunks[i].isSpilled())
+                spilled[count++] = chunks[i];
+        }
+        Arrays.sort(spilled, 0, count, Comparator.comparingLong(chunk -> chunk.spillOffset));
+        long offset = 0;
+        for (int i = 0; i < count; i++) {
+            var chunk = spilled[i];
+            if (chunk.spillOffset != offset) {
+                writeSpilled(readSpilled(chunk), offset);
+                chunk.spillOffset = offset;
+            }
+            offset += chunk.spillSize;
+        }
+        try {
+            spillFile.truncate(offset);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        spillFileSize = offset;
+        freeSpillOffset = -1;
+    }
+
+    private void writeSpilled(ByteBuffer bytes, long offset) {
+        try {
+            while (bytes.hasRemaining()) {
+                spillFile.write(bytes, offset + bytes.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the sealed text of a spilled chunk back from the spill file.
+     */
+    private ByteBuffer readSpilled(Chunk chunk) {
+        var bytes = ByteBuffer.wrap(spillBuffer, 0, chunk.spillSize);
+        try {
+            while (bytes.hasRemaining()) {
+                if (spillFile.read(bytes, chunk.spillOffset + bytes.position()) < 0)
+                    throw new IOException("Spill file is truncated");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.flip();
+    }
+
+    /**
+     * Loads the text of a compressed or spilled chunk into an array, if it is not among the recently loaded chunks, and
+     * makes it the most recently loaded chunk. The least recently loaded chunk is evicted.
+     */
+    private void load(Chunk chunk) {
+        if (!chunk.compressed && !chunk.isSpilled())
+            return;
+        if (chunk.latin1 == null && chunk.utf16 == null) {
+            var bytes = chunk.isSpilled() ? readSpilled(chunk) : chunk.sealed.duplicate().clear();
+            if (chunk.compressed)
+                bytes = inflate(bytes, chunk.sealedLatin1 ? chunk.length : chunk.length * 2);
+            if (chunk.sealedLatin1) {
+                chunk.latin1 = new byte[chunk.length];
+                bytes.get(0, chunk.latin1, 0, chunk.length);
+            } else {
+                chunk.utf16 = new char[chunk.length];
+                bytes.asCharBuffer().get(0, chunk.utf16, 0, chunk.length);
+            }
+        }
+        int i = 0;
+        while (i < LOADED_CHUNKS - 1 && loadedChunks[i] != null && loadedChunks[i] != chunk) {
+            i++;
+        }
+        var evicted = loadedChunks[i];
+        System.arraycopy(loadedChunks, 0, loadedChunks, 1, i);
+        loadedChunks[0] = chunk;
+        if (evicted != null && evicted != chunk)
+            evicted.evict();
+    }
+
+    /**
+     * Decompresses the bytes of a compressed chunk into the seal buffer.
+     */
+    private ByteBuffer inflate(ByteBuffer bytes, int size) {
+        inflater.reset();
+        inflater.setInput(bytes);
+        try {
+            int inflated = 0;
+            while (inflated < size && !inflater.finished() && !inflater.needsInput()) {
+                inflated += inflater.inflate(sealBuffer, inflated, size - inflated);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed chunk", e);
+        }
+        return ByteBuffer.wrap(sealBuffer, 0, size);
+    }
+
+    /**
+     * Removes a chunk from the recently loaded chunks.
+     */
+    private void forget(Chunk chunk) {
+        for (int i = 0; i < LOADED_CHUNKS; i++) {
+            if (loadedChunks[i] == chunk) {
+                System.arraycopy(loadedChunks, i + 1, loadedChunks, i, LOADED_CHUNKS - 1 - i);
+                loadedChunks[LOADED_CHUNKS - 1] = null;
+                return;
+            }
+        }
+    }
+
+    private void updateChunkStarts(int from) {
+        for (int i = Math.max(from, 1); i < chunkCount; i++) {
+            chunkStarts[i] = chunkStarts[i - 1] + chunks[i - 1].length;
+        }
+        if (chunkCount > 0)
+            chunkStarts[0] = 0;
+    }
+
+    /**
+     * Returns the index of the chunk containing an offset, or the last chunk for the end of the content.
+     */
+    private int chunkIndexOf(int offset) {
+        int index = Arrays.binarySearch(chunkStarts, 0, chunkCount, offset);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    // --- marks --------------------------------------------------------------------------------------------------------
+
+    private long indexOf(int offset) {
+        return offset < gapStart ? offset : offset + (gapEnd - gapStart);
+    }
+
+    /**
+     * Moves the virtual gap to an offset, and updates the indexes of the marks between the old and the new gap.
+     */
+    private void moveGap(int offset) {
+        long gapSize = gapEnd - gapStart;
+        if (offset > gapStart) {
+            for (int i = findMark(gapEnd); i < markCount && marks[i].index < offset + gapSize; i++) {
+                marks[i].index -= gapSize;
+            }
+        } else if (offset < gapStart) {
+            for (int i = findMark(offset); i < markCount && marks[i].index < gapStart; i++) {
+                marks[i].index += gapSize;
+            }
+        }
+        gapStart = offset;
+        gapEnd = offset + gapSize;
+    }
+
+    /**
+     * Returns the sort index of the first mark with an index of at least a specific index.
+     */
+    private int findMark(long index) {
+        int low = 0;
+        int high = markCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (marks[middle].index < index) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void removeUnusedMarks() {
+        int to = 0;
+        for (int from = 0; from < markCount; from++) {
+            if (marks[from].get() != null)
+                marks[to++] = marks[from];
+        }
+        Arrays.fill(marks, to, markCount, null);
+        markCount = to;
+        unusedMarks = 0;
+    }
+
+    /**
+     * Returns the marks in a range of offsets with their offsets, so they can be restored by an undo or redo.
+     */
+    private UndoPositions positionsInRange(int offset, int len) {
+        int from = findMark(indexOf(offset));
+        int to = findMark(indexOf(offset + len) + 1);
+        var positions = new UndoPositions(Arrays.copyOfRange(marks, from, to), new int[to - from]);
+        for (int i = 0; i < positions.marks.length; i++) {
+            positions.offsets[i] = positions.marks[i].getOffset();
+        }
+        return positions;
+    }
+
+    /**
+     * Restores the offsets of marks after the text around them has been inserted again.
+     */
+    private void restorePositions(UndoPositions positions, int offset, int len) {
+        int from = findMark(indexOf(offset));
+        int to = findMark(indexOf(offset + len) + 1);
+        for (int i = 0; i < positions.marks.length; i++) {
+            positions.marks[i].index = indexOf(positions.offsets[i]);
+        }
+        Arrays.sort(marks, from, to, Comparator.comparingLong(mark -> mark.index));
+    }
+
+    /**
+     * The index of a position, which is kept separate from the position, so the position can be garbage collected
+     * when it is no longer referenced.
+     */
+    private final class MarkData extends WeakReference<StickyPosition> {
+        long index;
+
+        MarkData(long index, StickyPosition position, ReferenceQueue<StickyPosition> queue) {
+            super(position, queue);
+            this.index = index;
+        }
+
+        int getOffset() {
+            return (int) (index < gapStart ? index : index - (gapEnd - gapStart));
+        }
+    }
+
+    private static final class StickyPosition implements Position {
+        MarkData mark;
+
+        @Override
+        public int getOffset() {
+            return mark.getOffset();
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getOffset());
+        }
+    }
+
+    // --- snapshots ----------------------------------------------------------------------------------------------------
+
+    /**
+     * The range of a snapshot at positions counted from the original start of the text, which do not change when text
+     * is appended or removed from the start.
+     */
+    static final class Snapshot {
+        final long start;
+        final long end;
+        boolean modified;
+
+        Snapshot(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    // --- undo ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * The marks in the text of an undoable edit with their offsets before the edit.
+     */
+    private static final class UndoPositions {
+        final MarkData[] marks;
+        final int[] offsets;
+
+        UndoPositions(MarkData[] marks, int[] offsets) {
+            this.marks = marks;
+            this.offsets = offsets;
+        }
+    }
+
+    private final class InsertUndo extends AbstractUndoableEdit {
+        private final int offset;
+        private final int length;
+        private String string; // the inserted text, after an undo
+        private UndoPositions positions;
+
+        InsertUndo(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            try {
+                positions = positionsInRange(offset, length);
+                string = getString(offset, length);
+                delete(offset, length);
+            } catch (BadLocationException e) {
+                throw new CannotUndoException();
+            }
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            insert(offset, string);
+            string = null;
+            restorePositions(positions, offset, length);
+            positions = null;
+        }
+    }
+
+    private final class RemoveUndo extends AbstractUndoableEdit {
+        private final int offset;
+        private final int length;
+        private String string; // the removed text, until a redo
+        private UndoPositions positions;
+
+        RemoveUndo(int offset, String string) {
+            this.offset = offset;
+            this.length = string.length();
+            this.string = string;
+            this.positions = positionsInRange(offset, length);
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            insert(offset, string);
+            restorePositions(positions, offset, length);
+            positions = null;
+            string = null;
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            try {
+                positions = positionsInRange(offset, length);
+                string = getString(offset, length);
+                delete(offset, length);
+            } catch (BadLocationException e) {
+                throw new CannotRedoException();
+            }
+        }
+    }
+
+    // --- chunks -------------------------------------------------------------------------------------------------------
+
+    /**
+     * A chunk of the text, which is stored as Latin-1 bytes if all characters are Latin-1, or as UTF-16 chars
+     * otherwise. The array has room for more characters, so appending to a chunk does not copy the chunk every time.
+     * <p>
+     * The text of a chunk that is not modified can be sealed into a buffer with the same encoding, which is off-heap
+     * and/or compressed, and the buffer can be spilled to disk. A sealed chunk is unsealed before it is modified. A
+     * compressed or spilled chunk keeps its text in the array while it is among the recently loaded chunks.
+     */
+    private static final class Chunk {
+        byte[] latin1; // null if the chunk is UTF-16, or sealed and not loaded
+        char[] utf16; // null if the chunk is Latin-1, or sealed and not loaded
+        ByteBuffer sealed; // the sealed text, or null if the chunk is not sealed or spilled
+        CharBuffer sealedChars; // a view of the sealed text, if it is uncompressed UTF-16
+        boolean sealedLatin1;
+        boolean compressed;
+        long spillOffset = -1; // the offset of the sealed text in the spill file, or -1 if the chunk is not spilled
+        int spillSize;
+        int length;
+
+        Chunk(char[] chars, int count) {
+            if (isLatin1(chars, 0, count)) {
+                latin1 = new byte[count];
+                for (int i = 0; i < count; i++) {
+                    latin1[i] = (byte) chars[i];
+                }
+            } else {
+                utf16 = Arrays.copyOf(chars, count);
+            }
+            length = count;
+        }
+
+        boolean isLatin1() {
+            return isSealed() ? sealedLatin1 : latin1 != null;
+        }
+
+        boolean isSealed() {
+            return sealed != null || spillOffset >= 0;
+        }
+
+        boolean isSpilled() {
+            return spillOffset >= 0;
+        }
+
+        int capacityBytes() {
+            int bytes = latin1 != null ? latin1.length : utf16 != null ? utf16.length * 2 : 0;
+            return sealed != null && !sealed.isDirect() ? bytes + sealed.capacity() : bytes;
+        }
+
+        int offHeapBytes() {
+            return sealed != null && sealed.isDirect() ? sealed.capacity() : 0;
+        }
+
+        void seal(ByteBuffer bytes, boolean latin1Encoded, boolean compressedBytes) {
+            sealed = bytes;
+            sealedLatin1 = latin1Encoded;
+            compressed = compressedBytes;
+            if (!latin1Encoded && !compressedBytes)
+                sealedChars = bytes.asCharBuffer();
+            latin1 = null;
+            utf16 = null;
+        }
+
+        void spill(long offset) {
+            spillOffset = offset;
+            spillSize = sealed.capacity();
+            if (sealed.isDirect())
+                AnsiDirectMemory.free(sealed);
+            sealed = null;
+            sealedChars = null;
+        }
+
+        /**
+         * Moves the text back into an array on the heap. A compressed or spilled chunk must have been loaded.
+         */
+        void unseal() {
+            if (!isSealed())
+                return;
+            if (latin1 == null && utf16 == null) {
+                if (sealedLatin1) {
+                    latin1 = new byte[length];
+                    sealed.get(0, latin1, 0, length);
+                } else {
+                    utf16 = new char[length];
+                    sealedChars.get(0, utf16, 0, length);
+                }
+            }
+            free();
+        }
+
+        /**
+         * Drops the loaded text of a compressed or spilled chunk.
+         */
+        void evict() {
+            if (compressed || isSpilled()) {
+                latin1 = null;
+                utf16 = null;
+            }
+        }
+
+        /**
+         * Frees the sealed text of the chunk, if the chunk is sealed. The text of a spilled chunk is left in the file.
+         */
+        void free() {
+            if (sealed != null && sealed.isDirect())
+                AnsiDirectMemory.free(sealed);
+            sealed = null;
+            sealedChars = null;
+            compressed = false;
+            spillOffset = -1;
+        }
+
+        void getChars(int from, int to, char[] dst, int dstOffset) {
+            if (latin1 != null) {
+                for (int i = from; i < to; i++) {
+                    dst[dstOffset++] = (char) (latin1[i] & 0xff);
+                }
+            } else if (utf16 != null) {
+                System.arraycopy(utf16, from, dst, dstOffset, to - from);
+            } else if (sealedChars == null) {
+                for (int i = from; i < to; i++) {
+                    dst[dstOffset++] = (char) (sealed.get(i) & 0xff);
+                }
+            } else {
+                sealedChars.get(from, dst, dstOffset, to - from);
+            }
+        }
+
+        void insert(int at, char[] chars, int count) {
+            if (latin1 != null && !isLatin1(chars, 0, count)) {
+                // Widen the chunk to UTF-16
+                utf16 = new char[Math.max(latin1.length, length + count)];
+                getChars(0, length, utf16, 0);
+                latin1 = null;
+            }
+            int capacity = latin1 != null ? latin1.length : utf16.length;
+            if (length + count > capacity) {
+                int newCapacity = Math.min(CHUNK_SIZE, Math.max(length + count, capacity * 2));
+                if (latin1 != null) {
+                    latin1 = Arrays.copyOf(latin1, newCapacity);
+                } else {
+                    utf16 = Arrays.copyOf(utf16, newCapacity);
+                }
+            }
+            if (latin1 != null) {
+                System.arraycopy(latin1, at, latin1, at + count, length - at);
+                for (int i = 0; i < count; i++) {
+                    latin1[at + i] = (byte) chars[i];
+                }
+            } else {
+                System.arraycopy(utf16, at, utf16, at + count, length - at);
+                System.arraycopy(chars, 0, utf16, at, count);
+            }
+            length += count;
+        }
+
+        void delete(int from, int to) {
+            if (latin1 != null) {
+                System.arraycopy(latin1, to, latin1, from, length - to);
+            } else {
+                System.arraycopy(utf16, to, utf16, from, length - to);
+            }
+            length -= to - from;
+        }
+
+        private static boolean isLatin1(char[] chars, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (chars[i] > 0xff)
+                    return false;
+            }
+            return true;
+        }
+    }
+}
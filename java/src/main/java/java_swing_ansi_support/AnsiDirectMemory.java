@@ -0,0 +1,55 @@
+package java_swing_ansi_support;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+
+/**
+ * Allocates and frees direct byte buffers for storing text outside the Java heap.
+ * <p>
+ * The memory of a direct buffer is normally freed some time after the buffer has been garbage collected. Off-heap
+ * storage is used for text that would otherwise put pressure on the garbage collector, so the garbage collector might
+ * not run for a long time. Hence, the memory is freed as soon as the buffer is no longer used, by invoking the cleaner
+ * of the buffer, when the JVM allows it.
+ */
+final class AnsiDirectMemory {
+
+    private static final MethodHandle INVOKE_CLEANER = findInvokeCleaner();
+
+    private AnsiDirectMemory() {
+    }
+
+    /**
+     * Allocates a direct buffer.
+     */
+    static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Frees the memory of a direct buffer. The buffer, and any views of it, must not be used afterwards.
+     */
+    static void free(ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null)
+            return; // the memory is freed when the buffer is garbage collected
+        try {
+            INVOKE_CLEANER.invokeExact(buffer);
+        } catch (Throwable e) {
+            // The memory is freed when the buffer is garbage collected
+        }
+    }
+
+    private static MethodHandle findInvokeCleaner() {
+        try {
+            var unsafeClass = Class.forName("sun.misc.Unsafe");
+            var theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(theUnsafe.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null; // e.g. the jdk.unsupported module is not available
+        }
+    }
+}
@@ -0,0 +1,508 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import javax.swing.event.DocumentEvent;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The AnsiDocument is the {@link DefaultStyledDocument} created by the {@link AnsiEditorKit}.
+ * <p>
+ * Styled text is inserted by the kit as one bulk insert, instead of inserting the text run by run with
+ * {@link #insertString(int, String, AttributeSet)}. This way the element structure is built in one go, and only one
+ * document event is fired for the entire text.
+ * <p>
+ * The document keeps an index of the start offset of each line, so lines can be looked up quickly with
+ * {@link #lineOfOffset(int)} and {@link #offsetOfLine(int)}, also in documents with millions of lines. The index is
+ * updated before document listeners are notified of a change. Lines are separated by newlines, so a document ending
+ * with a newline has an empty last line.
+ * <p>
+ * The text is stored in chunks, which keep ASCII and other Latin-1 text as bytes instead of chars. The memory used by
+ * the text is reported by {@link #getMemoryStats()}. With {@link #setOffHeapStorage(boolean)}, the text of all but the
+ * most recent chunks is kept outside the Java heap, so a long scrollback does not put pressure on the garbage collector.
+ * With {@link #setCompressedStorage(boolean)}, the same chunks are compressed, so more scrollback fits in the same memory.
+ * With {@link #setMemoryBudget(long)}, the oldest chunks are spilled to a temporary file, so the scrollback is only
+ * limited by the disk.
+ * <p>
+ * A {@link #snapshot()} of the text can be read on other threads without locking the document, while text is appended.
+ */
+public class AnsiDocument extends DefaultStyledDocument {
+
+    // The estimated heap bytes of a leaf element with its references, and of a branch element with its child array,
+    // assuming a 64-bit JVM with compressed references
+    private static final int LEAF_ELEMENT_BYTES = 32;
+    private static final int BRANCH_ELEMENT_BYTES = 32 + 16;
+    private static final int REFERENCE_BYTES = 4;
+
+    // The start offset of each line starting from index firstLineIndex. The offsets are stored relative to
+    // lineStartBase, so lines can be removed from the start of the document without updating all the offsets.
+    private int[] lineStarts = new int[256];
+    private int firstLineIndex;
+    private int lineCount = 1;
+    private int lineStartBase;
+
+    private final Segment segment = new Segment();
+
+    /**
+     * Creates an empty AnsiDocument.
+     */
+    public AnsiDocument() {
+        this(new AnsiStyleContext());
+    }
+
+    /**
+     * Creates an empty AnsiDocument using a style context shared with other documents.
+     */
+    AnsiDocument(AnsiStyleContext styleContext) {
+        super(new AnsiContent(), styleContext);
+    }
+
+    /**
+     * Returns the style context of the document, which creates the fonts of the document.
+     */
+    AnsiStyleContext getAnsiStyleContext() {
+        return (AnsiStyleContext) getAttributeContext();
+    }
+
+    /**
+     * Returns the number of lines in the document, which is always at least 1.
+     *
+     * @return the number of lines in the document.
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Returns the line containing an offset in the document in O(log n) time.
+     *
+     * @param offset is the offset in the document.
+     * @return the line containing the offset starting from 0.
+     * @throws IllegalArgumentException if the offset is outside the document.
+     */
+    public int lineOfOffset(int offset) {
+        if (offset < 0 || offset > getLength())
+            throw new IllegalArgumentException("offset is outside the document. Was: " + offset);
+        int index = Arrays.binarySearch(lineStarts, firstLineIndex, firstLineIndex + lineCount, offset + lineStartBase);
+        return (index >= 0 ? index : -index - 2) - firstLineIndex;
+    }
+
+    /**
+     * Returns the start offset of a line in the document in O(1) time.
+     *
+     * @param line is the line starting from 0.
+     * @return the start offset of the line.
+     * @throws IllegalArgumentException if the line does not exist.
+     */
+    public int offsetOfLine(int line) {
+        if (line < 0 || line >= lineCount)
+            throw new IllegalArgumentException("line does not exist. Was: " + line);
+        return lineStarts[firstLineIndex + line] - lineStartBase;
+    }
+
+    /**
+     * Takes a snapshot of the text of the document in O(1) time without copying the text. The snapshot can be read on
+     * any thread without holding the lock of the document, while text is appended to the document, e.g. for searching
+     * or exporting the text in the background. This method can be called on any thread too. See
+     * {@link AnsiTextSnapshot} for how the snapshot is affected by other modifications of the document, including the
+     * overwrites of the last lines by carriage returns, which invalidate the snapshot.
+     *
+     * @return a snapshot of the text of the document.
+     */
+    public AnsiTextSnapshot snapshot() {
+        var content = (AnsiContent) getContent();
+        return new AnsiTextSnapshot(content, content.snapshot());
+    }
+
+    /**
+     * Returns the memory used for storing the text of the document, and an estimate of the memory used by its elements.
+     * The elements are counted line by line, so this takes time in proportion to the number of lines.
+     *
+     * @return the memory stats of the document.
+     */
+    public AnsiMemoryStats getMemoryStats() {
+        readLock();
+        try {
+            var content = (AnsiContent) getContent();
+            var root = getDefaultRootElement();
+            int elementCount = 1 + root.getElementCount();
+            long elementBytes = BRANCH_ELEMENT_BYTES + (long) root.getElementCount() * REFERENCE_BYTES
+                    + content.getPositionBytes() + (long) lineStarts.length * Integer.BYTES;
+            for (int i = 0; i < root.getElementCount(); i++) {
+                int runCount = root.getElement(i).getElementCount();
+                elementCount += runCount;
+                elementBytes += BRANCH_ELEMENT_BYTES + (long) runCount * (LEAF_ELEMENT_BYTES + REFERENCE_BYTES);
+            }
+            return new AnsiMemoryStats(lineCount, getLength(), content.getChunkCount(), content.getLatin1ChunkCount(),
+                    content.getCompressedChunkCount(), content.getSpilledChunkCount(), content.getTextBytes(),
+                    content.getOffHeapBytes(), content.getDiskBytes(), elementCount, elementBytes);
+        } finally {
+            readUnlock();
+        }
+    }
+
+    /**
+     * Checks if the text of the document is stored off-heap. See {@link #setOffHeapStorage(boolean)}.
+     *
+     * @return {@code true} if the text is stored off-heap; {@code false} otherwise.
+     */
+    public boolean isOffHeapStorage() {
+        return ((AnsiContent) getContent()).isOffHeap();
+    }
+
+    /**
+     * Sets if the text of the document is stored off-heap, i.e. outside the Java heap. The text is stored in chunks,
+     * and the chunks are moved off-heap, when they are full and not among the most recent chunks, so appending text is
+     * as fast as with text on the heap. Off-heap storage is disabled by default.
+     * <p>
+     * Only the text is moved off-heap. The elements holding the styles and lines of the text, and the line index, are
+     * still kept on the heap, so the heap used by the document still grows with the number of lines and style runs.
+     * This is reported by {@link AnsiMemoryStats#getElementBytes()}, and is about 60 bytes per line plus about 90 bytes
+     * per style run.
+     * <p>
+     * The off-heap memory is freed right away, when text is removed, e.g. by {@link #trimLines(int)}, and when the
+     * document is disposed with {@link #dispose()}.
+     *
+     * @param offHeap is {@code true} for storing the text off-heap; {@code false} for storing it on the heap.
+     */
+    public void setOffHeapStorage(boolean offHeap) {
+        writeLock();
+        try {
+            ((AnsiContent) getContent()).setOffHeap(offHeap);
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Checks if the text of the document is stored compressed. See {@link #setCompressedStorage(boolean)}.
+     *
+     * @return {@code true} if the text is stored compressed; {@code false} otherwise.
+     */
+    public boolean isCompressedStorage() {
+        return ((AnsiContent) getContent()).isCompressed();
+    }
+
+    /**
+     * Sets if the text of the document is stored compressed. The text is stored in chunks, and the chunks are
+     * compressed, when they are full and not among the most recent chunks, so appending text is as fast as with
+     * uncompressed text. A compressed chunk is decompressed when its text is read, e.g. when its lines are scrolled
+     * into view or searched, and the most recently decompressed chunks are kept decompressed. The styles of the text
+     * are not compressed. Compressed storage is disabled by default.
+     * <p>
+     * Compressed storage can be combined with off-heap storage, which stores the compressed chunks off-heap.
+     *
+     * @param compressed is {@code true} for storing the text compressed; {@code false} for storing it uncompressed.
+     */
+    public void setCompressedStorage(boolean compressed) {
+        writeLock();
+        try {
+            ((AnsiContent) getContent()).setCompressed(compressed);
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Returns the memory budget of the text of the document. See {@link #setMemoryBudget(long)}.
+     *
+     * @return the maximum number of bytes of memory used by the stored text, or 0 if the text is not spilled to disk.
+     */
+    public long getMemoryBudget() {
+        long maxBytes = ((AnsiContent) getContent()).getMemoryBudget();
+        return maxBytes == Long.MAX_VALUE ? 0 : maxBytes;
+    }
+
+    /**
+     * Sets the memory budget of the text of the document. The text is stored in chunks, and when the chunks that are
+     * not among the most recent chunks take up more memory than the budget, the oldest chunks are spilled to a
+     * temporary file. Spilled chunks are read back from the file when their text is read, e.g. when their lines are
+     * scrolled into view, and the most recently read chunks are kept in memory. This way the document can keep an
+     * unbounded history of text, while the elements holding the styles and lines of the text still take up memory on
+     * the heap, see {@link AnsiMemoryStats#getElementBytes()}. The budget
+     * counts the memory used off-heap with {@link #setOffHeapStorage(boolean)}, and the compressed size with
+     * {@link #setCompressedStorage(boolean)}. The memory budget is disabled by default.
+     * <p>
+     * The space of chunks removed from the file, e.g. by {@link #trimLines(int)}, is reused, and the file is compacted
+     * when more than half of it is unused, so the file stays at most about twice the size of the spilled text. The file
+     * is deleted when the document is disposed with {@link #dispose()}.
+     *
+     * @param maxBytes is the maximum number of bytes of memory used by the stored text, or 0 for not spilling the text
+     *                 to disk.
+     */
+    public void setMemoryBudget(long maxBytes) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("maxBytes cannot be negative. Was: " + maxBytes);
+        writeLock();
+        try {
+            ((AnsiContent) getContent()).setMemoryBudget(maxBytes > 0 ? maxBytes : Long.MAX_VALUE);
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Disposes the document by freeing the memory used by the text, including the off-heap memory, and deleting the
+     * file with the text spilled to disk. The document must not be used afterwards, and must not be shown by a text
+     * component.
+     */
+    public void dispose() {
+        writeLock();
+        try {
+            ((AnsiContent) getContent()).dispose();
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Removes the first lines of the document, so it contains at most a maximum number of lines.
+     * This can be used for limiting the scrollback of a document that text is continuously appended to.
+     *
+     * @param maxLineCount is the maximum number of lines to keep, which must be at least 1.
+     */
+    public void trimLines(int maxLineCount) throws BadLocationException {
+        if (maxLineCount < 1)
+            throw new IllegalArgumentException("maxLineCount must be at least 1. Was: " + maxLineCount);
+        writeLock();
+        try {
+            if (lineCount > maxLineCount)
+                remove(0, offsetOfLine(lineCount - maxLineCount));
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Inserts runs of styled text into the document as one bulk insert. The result is the same as inserting the runs
+     * one after another with {@link #insertString(int, String, AttributeSet)}, except that a document filter is not
+     * applied.
+     *
+     * @param offset        is the offset into the document where the text will be inserted.
+     * @param text          is the text of all the runs.
+     * @param runEnds       is the end index into the text for each run.
+     * @param runAttributes is the attributes for each run.
+     * @param runCount      is the number of runs.
+     */
+    void insertRuns(int offset, char[] text, int[] runEnds, AttributeSet[] runAttributes, int runCount) throws BadLocationException {
+        if (text.length == 0)
+            return;
+
+        writeLock();
+        try {
+            if (offset < 0 || offset > getLength())
+                throw new BadLocationException("Invalid insert", offset);
+            insert(offset, createSpecs(offset, text, runEnds, runAttributes, runCount));
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Creates the element specs for inserting runs of text. This follows the same rules as
+     * {@link DefaultStyledDocument#insertUpdate}, which creates the specs for a single run after the text has been
+     * inserted into the content. Here the specs are created before the text is inserted, as required by
+     * {@link #insert(int, ElementSpec[])}.
+     */
+    private ElementSpec[] createSpecs(int offset, char[] text, int[] runEnds, AttributeSet[] runAttributes, int runCount) throws BadLocationException {
+        var specs = new ArrayList<ElementSpec>();
+
+        // The paragraph at the offset gets the text after the last newline
+        Element paragraph = getParagraphElement(offset);
+        AttributeSet paragraphAttributes = paragraph.getAttributes();
+
+        boolean afterNewline = false;
+        if (offset > 0) {
+            var segment = new Segment();
+            getText(offset - 1, 1, segment);
+            afterNewline = segment.first() == '\n';
+        }
+        // Text at the start of a run joins the run before it
+        Element run = getCharacterElement(offset);
+        boolean atRunStart = offset > 0 && run.getStartOffset() == offset;
+        if (atRunStart)
+            run = getCharacterElement(offset - 1);
+        AttributeSet runAttributesAtOffset = run.getAttributes();
+
+        ElementSpec lastStartSpec = null;
+        if (afterNewline) {
+            specs.add(new ElementSpec(paragraphAttributes, ElementSpec.EndTagType));
+            lastStartSpec = new ElementSpec(paragraphAttributes, ElementSpec.StartTagType);
+            specs.add(lastStartSpec);
+        }
+
+        int start = 0;
+        for (int i = 0; i < runCount; i++) {
+            int end = runEnds[i];
+            for (int j = start; j < end; j++) {
+                if (text[j] == '\n') {
+                    specs.add(new TextSpec(runAttributes[i], text, start, j + 1 - start));
+                    specs.add(new ElementSpec(null, ElementSpec.EndTagType));
+                    lastStartSpec = new ElementSpec(paragraphAttributes, ElementSpec.StartTagType);
+                    specs.add(lastStartSpec);
+                    start = j + 1;
+                }
+            }
+            if (end > start) {
+                specs.add(new TextSpec(runAttributes[i], text, start, end - start));
+                start = end;
+            }
+        }
+
+        ElementSpec first = specs.get(0);
+        if (first.getType() == ElementSpec.ContentType && runAttributesAtOffset.isEqual(first.getAttributes()))
+            first.setDirection(ElementSpec.JoinPreviousDirection);
+
+        if (lastStartSpec != null) {
+            // After a newline the paragraph at the offset follows the inserted text; otherwise it is fractured by it
+            lastStartSpec.setDirection(afterNewline ? ElementSpec.JoinNextDirection : ElementSpec.JoinFractureDirection);
+        }
+
+        ElementSpec last = specs.get(specs.size() - 1);
+        if (last.getType() == ElementSpec.ContentType && last.getDirection() != ElementSpec.JoinPreviousDirection) {
+            AttributeSet lastAttributes = last.getAttributes();
+            if (atRunStart && offset < getLength()) {
+                // Join the run following the inserted text, if it has the same attributes
+                if ((lastStartSpec == null || lastStartSpec.getDirection() != ElementSpec.OriginateDirection)
+                        && lastAttributes.isEqual(getCharacterElement(offset).getAttributes())) {
+                    last.setDirection(ElementSpec.JoinNextDirection);
+                }
+            } else if (!atRunStart && lastStartSpec != null
+                    && lastStartSpec.getDirection() == ElementSpec.JoinFractureDirection
+                    && lastAttributes.isEqual(runAttributesAtOffset)) {
+                // Join the second half of the fractured run
+                last.setDirection(ElementSpec.JoinNextDirection);
+            }
+        }
+        return specs.toArray(new ElementSpec[0]);
+    }
+
+    /**
+     * Updates the line index with the inserted text, before the listeners are notified.
+     * This is also the case when a removal is undone.
+     */
+    @Override
+    protected void fireInsertUpdate(DocumentEvent e) {
+        insertLines(e.getOffset(), e.getLength());
+        super.fireInsertUpdate(e);
+    }
+
+    /**
+     * Updates the line index with the removed text, before the listeners are notified.
+     * This is also the case when an insertion is undone.
+     */
+    @Override
+    protected void fireRemoveUpdate(DocumentEvent e) {
+        removeLines(e.getOffset(), e.getLength());
+        super.fireRemoveUpdate(e);
+    }
+
+    private void insertLines(int offset, int length) {
+        // Find the start offsets of the inserted lines
+        int[] insertedStarts = new int[16];
+        int insertedCount = 0;
+        segment.setPartialReturn(true);
+        int position = offset;
+        while (position < offset + length) {
+            try {
+                getText(position, offset + length - position, segment);
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e);
+            }
+            for (int i = 0; i < segment.count; i++) {
+                if (segment.array[segment.offset + i] == '\n') {
+                    if (insertedCount == insertedStarts.length)
+                        insertedStarts = Arrays.copyOf(insertedStarts, insertedCount * 2);
+                    insertedStarts[insertedCount++] = position + i + 1;
+                }
+            }
+            position += segment.count;
+        }
+
+        if (firstLineIndex + lineCount + insertedCount > lineStarts.length) {
+            compactLines();
+            if (lineCount + insertedCount > lineStarts.length)
+                lineStarts = Arrays.copyOf(lineStarts, Math.max(lineStarts.length * 2, lineCount + insertedCount));
+        }
+
+        // Shift the lines after the inserted text, and insert the new lines after the line at the offset
+        int index = firstLineIndex + lineOfOffset(offset) + 1;
+        int end = firstLineIndex + lineCount;
+        for (int i = index; i < end; i++) {
+            lineStarts[i] += length;
+        }
+        if (insertedCount > 0) {
+            System.arraycopy(lineStarts, index, lineStarts, index + insertedCount, end - index);
+            for (int i = 0; i < insertedCount; i++) {
+                lineStarts[index + i] = insertedStarts[i] + lineStartBase;
+            }
+            lineCount += insertedCount;
+        }
+    }
+
+    private void removeLines(int offset, int length) {
+        // The lines starting within the removed text or right after it are joined with the line at the offset
+        int first = firstLineIndex + lineOfOffset(offset) + 1;
+        int last = first;
+        int end = firstLineIndex + lineCount;
+        while (last < end && lineStarts[last] - lineStartBase <= offset + length) {
+            last++;
+        }
+        int removedCount = last - first;
+        lineCount -= removedCount;
+
+        if (offset == 0) {
+            // Removing the start of the document: skip the removed lines, and let the line at the offset start at 0
+            firstLineIndex += removedCount;
+            lineStartBase += length;
+            lineStarts[firstLineIndex] = lineStartBase;
+            if (firstLineIndex > lineCount || lineStartBase > Integer.MAX_VALUE / 2)
+                compactLines();
+        } else {
+            for (int i = last; i < end; i++) {
+                lineStarts[i] -= length;
+            }
+            System.arraycopy(lineStarts, last, lineStarts, first, end - last);
+        }
+    }
+
+    /**
+     * Moves the line start offsets to the start of the array, relative to 0.
+     */
+    private void compactLines() {
+        for (int i = 0; i < lineCount; i++) {
+            lineStarts[i] = lineStarts[firstLineIndex + i] - lineStartBase;
+        }
+        firstLineIndex = 0;
+        lineStartBase = 0;
+    }
+
+    /**
+     * A content spec that refers to a part of the text of all the runs. The text passed to the constructors of
+     * {@link ElementSpec} is copied per spec, which is too costly with many specs sharing a large text.
+     */
+    private static final class TextSpec extends ElementSpec {
+        private final char[] text;
+        private final int offset;
+
+        TextSpec(AttributeSet attributes, char[] text, int offset, int length) {
+            super(attributes, ContentType, length);
+            this.text = text;
+            this.offset = offset;
+        }
+
+        @Override
+        public char[] getArray() {
+            return text;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.StyledDocument;
+import java.util.Arrays;
+
+/**
+ * Writes styled text into a document at a cursor, like a terminal writes text to its screen.
+ * <p>
+ * Text is inserted at the cursor, until the cursor is moved by a carriage return ({@code \r}) or a cursor up command
+ * ({@code ESC[nA}). From then on, text overwrites the existing text of the lines, and a newline moves the cursor to the
+ * start of the next line, if there is one. This way programs that redraw progress bars in place do not leave a line in
+ * the document for each redraw. Once the cursor is back at the end of the document, text is inserted again, so the
+ * runs can be bulk inserted. Lines can be erased with {@code ESC[K}.
+ * <p>
+ * Columns are counted in code points, so a character outside the BMP overwrites one character, and the cursor never
+ * moves between the two chars of a surrogate pair.
+ */
+final class AnsiDocumentWriter {
+
+    private final StyledDocument doc;
+    private int cursor;
+    private boolean overwrite;
+
+    AnsiDocumentWriter(StyledDocument doc, int offset) {
+        this.doc = doc;
+        this.cursor = offset;
+    }
+
+    /**
+     * Returns the offset of the cursor in the document.
+     */
+    int cursor() {
+        return cursor;
+    }
+
+    /**
+     * Writes runs of styled text at the cursor. When inserting into an {@link AnsiDocument}, the runs are inserted as
+     * one bulk insert.
+     */
+    void writeRuns(char[] text, int[] runEnds, AttributeSet[] runAttributes, int runCount) throws BadLocationException {
+        if (!overwrite && doc instanceof AnsiDocument) {
+            ((AnsiDocument) doc).insertRuns(cursor, text, runEnds, runAttributes, runCount);
+            cursor += text.length;
+        } else {
+            int runStart = 0;
+            for (int i = 0; i < runCount; i++) {
+                if (!overwrite && doc instanceof AnsiDocument) {
+                    // The cursor is back at the end of the document, so the remaining runs are inserted in bulk
+                    writeRuns(Arrays.copyOfRange(text, runStart, text.length),
+                            remainingRunEnds(runEnds, i, runCount, runStart),
+                            Arrays.copyOfRange(runAttributes, i, runCount), runCount - i);
+                    return;
+                }
+                write(text, runStart, runEnds[i], runAttributes[i]);
+                runStart = runEnds[i];
+            }
+        }
+    }
+
+    private static int[] remainingRunEnds(int[] runEnds, int from, int runCount, int runStart) {
+        var remaining = new int[runCount - from];
+        for (int i = 0; i < remaining.length; i++) {
+            remaining[i] = runEnds[from + i] - runStart;
+        }
+        return remaining;
+    }
+
+    /**
+     * Writes styled text at the cursor.
+     */
+    void write(char[] text, int start, int end, AttributeSet attributes) throws BadLocationException {
+        while (overwrite && start < end) {
+            int newline = start;
+            while (newline < end && text[newline] != '\n') {
+                newline++;
+            }
+            if (newline > start) {
+                // Overwrite the text until the end of the line, and insert the rest
+                int length = newline - start;
+                int overwritten = overwrittenLength(Character.codePointCount(text, start, length));
+                if (overwritten > 0)
+                    doc.remove(cursor, overwritten);
+                doc.insertString(cursor, new String(text, start, length), attributes);
+                cursor += length;
+            }
+            if (newline < end) {
+                // Move to the start of the next line, which is added if the cursor is on the last line
+                int lineEnd = lineEnd(cursor);
+                if (lineEnd == doc.getLength())
+                    doc.insertString(lineEnd, "\n", attributes);
+                cursor = lineEnd + 1;
+            }
+            start = Math.min(newline + 1, end);
+            overwrite = cursor < doc.getLength();
+        }
+        if (start < end) {
+            doc.insertString(cursor, new String(text, start, end - start), attributes);
+            cursor += end - start;
+        }
+    }
+
+    /**
+     * Returns the number of chars after the cursor that are overwritten by a number of code points, which is at most
+     * the rest of the line.
+     */
+    private int overwrittenLength(int codePoints) throws BadLocationException {
+        int lineEnd = lineEnd(cursor);
+        var text = doc.getText(cursor, Math.min(lineEnd - cursor, 2 * codePoints));
+        return offsetByCodePoints(text, 0, codePoints);
+    }
+
+    /**
+     * Moves the cursor to the start of the line ({@code \r}).
+     */
+    void carriageReturn() {
+        overwrite = true;
+        cursor = line(cursor).getStartOffset();
+    }
+
+    /**
+     * Executes a CSI command with the first parameter of the command. Unsupported commands are ignored.
+     *
+     * @param command   is the final character of the command, e.g. 'A' for {@code ESC[nA}.
+     * @param parameter is the first parameter of the command, or -1 if the command has no parameters.
+     */
+    void command(char command, int parameter) throws BadLocationException {
+        switch (command) {
+            case 'A':
+                cursorUp(Math.max(parameter, 1));
+                break;
+            case 'K':
+                eraseInLine(Math.max(parameter, 0));
+                break;
+        }
+    }
+
+    /**
+     * Moves the cursor up a number of lines ({@code ESC[nA}), keeping the column if the line is long enough.
+     */
+    private void cursorUp(int lineCount) throws BadLocationException {
+        overwrite = true;
+        var root = doc.getDefaultRootElement();
+        int lineIndex = root.getElementIndex(cursor);
+        int lineStart = root.getElement(lineIndex).getStartOffset();
+        int column = codePointCount(lineStart, cursor);
+        var line = root.getElement(Math.max(lineIndex - lineCount, 0));
+        var text = doc.getText(line.getStartOffset(), line.getEndOffset() - 1 - line.getStartOffset());
+        cursor = line.getStartOffset() + offsetByCodePoints(text, 0, column);
+    }
+
+    /**
+     * Erases text in the line of the cursor ({@code ESC[K}), where the mode is 0 for erasing from the cursor to the end
+     * of the line, 1 for erasing from the start of the line to the cursor, and 2 for erasing the entire line.
+     * The text before the cursor is replaced with spaces, so the cursor keeps its column.
+     */
+    private void eraseInLine(int mode) throws BadLocationException {
+        int lineStart = line(cursor).getStartOffset();
+        int lineEnd = lineEnd(cursor);
+        if (mode == 0 || mode == 2) {
+            doc.remove(cursor, lineEnd - cursor);
+        }
+        if ((mode == 1 || mode == 2) && cursor > lineStart) {
+            var attributes = doc.getCharacterElement(lineStart).getAttributes();
+            int column = codePointCount(lineStart, cursor);
+            doc.remove(lineStart, cursor - lineStart);
+            doc.insertString(lineStart, " ".repeat(column), attributes);
+            cursor = lineStart + column;
+        }
+    }
+
+    private int codePointCount(int start, int end) throws BadLocationException {
+        var text = doc.getText(start, end - start);
+        return Character.codePointCount(text, 0, text.length());
+    }
+
+    /**
+     * Returns the offset a number of code points after an index in a text, or the length of the text if it has fewer
+     * code points.
+     */
+    private static int offsetByCodePoints(CharSequence text, int index, int codePoints) {
+        while (codePoints > 0 && index < text.length()) {
+            index += Character.isHighSurrogate(text.charAt(index)) && index + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(index + 1)) ? 2 : 1;
+            codePoints--;
+        }
+        return index;
+    }
+
+    private Element line(int offset) {
+        var root = doc.getDefaultRootElement();
+        return root.getElement(root.getElementIndex(offset));
+    }
+
+    /**
+     * Returns the offset of the newline ending the line with an offset, or the document length for the last line.
+     */
+    private int lineEnd(int offset) {
+        return line(offset).getEndOffset() - 1;
+    }
+}
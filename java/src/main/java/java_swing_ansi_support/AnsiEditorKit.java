@@ -3,7 +3,12 @@ package java_swing_ansi_support;
 import javax.swing.text.*;
 import java.awt.*;
 import java.io.*;
-import java.util.regex.Pattern;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntBinaryOperator;
 
 /**
  * The AnsiEditorKit is a specialized {@link StyledEditorKit} that is able to created {@link StyledDocument}s based on
@@ -16,7 +21,11 @@ public class AnsiEditorKit extends StyledEditorKit {
     private final int fontSize;
     private final IAnsiColors ansiColors;
 
-    private final Pattern ansiEscCodePattern = Pattern.compile("\u001b\\[(\\d+;?)+m");
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+    private final ViewFactory viewFactory = new AnsiViewFactory();
+    private final AnsiStyleContext styleContext = new AnsiStyleContext();
+    private final AtomicReference<AnsiStyleTable> styleTable = new AtomicReference<>(); // the table between inserts
 
     /**
      * Creates a AnsiEditorKit using a monospaced font size of 14, and the {@link DefaultAnsiColors} as ANSI colors.
@@ -52,6 +61,25 @@ public class AnsiEditorKit extends StyledEditorKit {
     public AnsiEditorKit(int fontSize, IAnsiColors ansiColors) {
         this.fontSize = fontSize;
         this.ansiColors = ansiColors;
+        this.styleContext.createFonts(fontSize);
+    }
+
+    /**
+     * Creates an {@link AnsiDocument}, which the ANSI text is inserted into as one bulk insert.
+     * The documents created by the kit share the same fonts.
+     */
+    @Override
+    public Document createDefaultDocument() {
+        return new AnsiDocument(styleContext);
+    }
+
+    /**
+     * Returns a view factory, which creates views that can hide the lines not matching the {@link AnsiLineFilter} of
+     * an {@link AnsiEditorPane}.
+     */
+    @Override
+    public ViewFactory getViewFactory() {
+        return viewFactory;
     }
 
     @Override
@@ -60,11 +88,69 @@ public class AnsiEditorKit extends StyledEditorKit {
     }
 
     /**
-     * {@inheritDoc}
+     * Reads UTF-8 encoded ANSI text from an input stream, and inserts it into the document.
+     * See {@link #read(InputStream, Document, int, Charset)}.
      */
     @Override
     public void read(InputStream inputStream, Document doc, int pos) throws IOException, BadLocationException {
-        read(new BufferedReader(new InputStreamReader(inputStream)), doc, pos);
+        read(inputStream, doc, pos, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads ANSI text from an input stream, and inserts it into the document.
+     * <p>
+     * With charsets where escape codes are plain ASCII bytes like UTF-8, the bytes are scanned for escape codes
+     * directly, and only the text between the escape codes is decoded. The text is inserted into the document while
+     * reading, so the input is never held in memory as a whole.
+     *
+     * @param inputStream is the input stream to read from. The stream is closed after reading.
+     * @param doc         is a {@link StyledDocument} the ANSI text is inserted into.
+     * @param pos         is the offset into the document where the text will be inserted.
+     * @param charset     is the charset of the ANSI text.
+     */
+    public void read(InputStream inputStream, Document doc, int pos, Charset charset) throws IOException, BadLocationException {
+        if (!(doc instanceof StyledDocument))
+            throw new IllegalArgumentException("The document must be a StyledDocument for this kit");
+
+        if (AnsiByteDecoder.isAsciiCompatible(charset)) {
+            try (inputStream) {
+                new AnsiByteDecoder(this, charset).read(inputStream, (StyledDocument) doc, pos);
+            }
+        } else {
+            read(new BufferedReader(new InputStreamReader(inputStream, charset)), doc, pos);
+        }
+    }
+
+    /**
+     * Replaces the content of a document with a range of lines from a memory-mapped ANSI file.
+     * Only the lines in the range are read and styled, so this is fast for any file size, and can be used for paging
+     * in the lines being viewed on demand.
+     *
+     * @param file      is the {@link AnsiMappedFile} to read from.
+     * @param doc       is a {@link StyledDocument} the ANSI text is inserted into.
+     * @param firstLine is the first line to read starting from 0.
+     * @param lineCount is the number of lines to read. Lines after the end of the file are ignored.
+     */
+    public void readLines(AnsiMappedFile file, StyledDocument doc, long firstLine, int lineCount) throws IOException, BadLocationException {
+        doc.remove(0, doc.getLength());
+        doc.setCharacterAttributes(0, 1, SimpleAttributeSet.EMPTY, true); // do not inherit the style of removed text
+        read(file.newInputStream(firstLine, lineCount), doc, 0);
+    }
+
+    /**
+     * Replaces the content of a document with a range of lines from an {@link AnsiLineStore}.
+     * Only the lines in the range are parsed and styled, so this is fast for any number of lines in the store, and can
+     * be used for showing the lines being viewed on demand.
+     *
+     * @param store     is the {@link AnsiLineStore} to read from.
+     * @param doc       is a {@link StyledDocument} the ANSI text is inserted into.
+     * @param firstLine is the first line to read starting from 0.
+     * @param lineCount is the number of lines to read. Lines after the last line are ignored.
+     */
+    public void readLines(AnsiLineStore store, StyledDocument doc, int firstLine, int lineCount) throws BadLocationException {
+        doc.remove(0, doc.getLength());
+        doc.setCharacterAttributes(0, 1, SimpleAttributeSet.EMPTY, true); // do not inherit the style of removed text
+        insertAnsi(doc, store.ansiText(firstLine, lineCount), 0);
     }
 
     /**
@@ -82,7 +168,9 @@ public class AnsiEditorKit extends StyledEditorKit {
      * {@inheritDoc}
      */
     public void write(OutputStream outputStream, Document doc, int pos, int len) throws IOException, BadLocationException {
-        write(new BufferedWriter(new OutputStreamWriter(outputStream)), doc, pos, len);
+        var writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        write(writer, doc, pos, len);
+        writer.flush();
     }
 
     /**
@@ -115,45 +203,175 @@ public class AnsiEditorKit extends StyledEditorKit {
         if (offset < 0)
             throw new IllegalArgumentException("Offset cannot be negative. Was: " + offset);
 
+        var chunk = new AnsiChunk(0, ansiText.length());
+        chunk.tokenize(ansiText);
+        insertChunks(doc, ansiText, offset, new AnsiChunk[]{chunk});
+    }
+
+    /**
+     * Inserts an ANSI text into a specific text position of the document, where the text is parsed in parallel using
+     * the common fork/join pool.
+     * See {@link #insertAnsiParallel(StyledDocument, String, int, ForkJoinPool)}.
+     */
+    public void insertAnsiParallel(StyledDocument doc, String ansiText, int offset) throws BadLocationException {
+        insertAnsiParallel(doc, ansiText, offset, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Inserts an ANSI text into a specific text position of the document, where the text is parsed in parallel.
+     * The result is the same as with {@link #insertAnsi(StyledDocument, String, int)}, but large texts like log files
+     * are parsed considerably faster on machines with multiple cores.
+     * <p>
+     * The text is split into chunks at line boundaries, which are tokenized independently by the workers of the pool.
+     * The style set by the escape codes is then carried across the chunks in a sequential pass, before all the styled
+     * text is inserted into the document at once.
+     *
+     * @param doc      is a {@link StyledDocument} the ANSI text is inserted into.
+     * @param ansiText is the ANSI text to insert into the document.
+     * @param offset   is the offset into the document where the text will be inserted.
+     * @param pool     is the fork/join pool used for parsing the text.
+     */
+    public void insertAnsiParallel(StyledDocument doc, String ansiText, int offset, ForkJoinPool pool) throws BadLocationException {
+        if (offset < 0)
+            throw new IllegalArgumentException("Offset cannot be negative. Was: " + offset);
+
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, ansiText.length() / (pool.getParallelism() * 4));
+        var chunks = AnsiChunk.split(ansiText, chunkSize);
+        AnsiChunk.tokenizeAll(chunks, ansiText, pool);
+        insertChunks(doc, ansiText, offset, chunks);
+    }
+
+    /**
+     * Resolves the styles of the tokenized chunks of an ANSI text, and inserts the styled text into the document.
+     * Adjacent text with equal styles is inserted as a single run. The text is written in one go, unless the text
+     * contains control codes, which are executed in between.
+     */
+    private void insertChunks(StyledDocument doc, String ansiText, int offset, AnsiChunk[] chunks) throws BadLocationException {
+        var styles = acquireStyleTable();
+        try {
+            insertChunks(doc, ansiText, offset, chunks, styles);
+        } finally {
+            releaseStyleTable(styles);
+        }
+    }
+
+    private void insertChunks(StyledDocument doc, String ansiText, int offset, AnsiChunk[] chunks, AnsiStyleTable styles) throws BadLocationException {
+        var writer = new AnsiDocumentWriter(doc, offset);
+        int style = styles.styleOf(initialAttributes(doc, offset));
+        IntBinaryOperator nextStyle = styles::next;
+
+        var text = new char[ansiText.length()];
+        int textLength = 0;
+        var runEnds = new int[16];
+        var runAttributes = new AttributeSet[16];
+        int runCount = 0;
+
+        for (var chunk : chunks) {
+            for (int token = 0; token < chunk.tokenCount(); token++) {
+                int tokenStart = chunk.tokenStart(token);
+                int tokenEnd = chunk.tokenEnd(token);
+                int tokenType = chunk.tokenType(token);
+                if (tokenType == AnsiTokenizer.SGR_CODE) {
+                    style = AnsiTokenizer.applySgrCode(style, ansiText, tokenStart, tokenEnd, nextStyle);
+                    continue;
+                }
+                if (tokenType == AnsiTokenizer.CONTROL_CODE) {
+                    writer.writeRuns(Arrays.copyOf(text, textLength), runEnds, runAttributes, runCount);
+                    textLength = 0;
+                    runCount = 0;
+                    executeControlCode(writer, ansiText, tokenStart, tokenEnd);
+                    continue;
+                }
+                ansiText.getChars(tokenStart, tokenEnd, text, textLength);
+                textLength += tokenEnd - tokenStart;
+                var attributes = styles.attributes(style);
+                if (runCount > 0 && runAttributes[runCount - 1] == attributes) { // equal styles share the same attributes
+                    runEnds[runCount - 1] = textLength;
+                } else {
+                    if (runCount == runEnds.length) {
+                        runEnds = Arrays.copyOf(runEnds, runCount * 2);
+                        runAttributes = Arrays.copyOf(runAttributes, runCount * 2);
+                    }
+                    runEnds[runCount] = textLength;
+                    runAttributes[runCount] = attributes;
+                    runCount++;
+                }
+            }
+        }
+        writer.writeRuns(textLength < text.length ? Arrays.copyOf(text, textLength) : text, runEnds, runAttributes, runCount);
+    }
+
+    /**
+     * Executes a carriage return, or a CSI escape code like {@code ESC[2A} with the first parameter of the code.
+     */
+    private static void executeControlCode(AnsiDocumentWriter writer, CharSequence ansiText, int codeStart, int codeEnd) throws BadLocationException {
+        if (ansiText.charAt(codeStart) == '\r') {
+            writer.carriageReturn();
+            return;
+        }
+        writer.command(ansiText.charAt(codeEnd - 1), AnsiTokenizer.firstParameter(ansiText, codeStart, codeEnd));
+    }
+
+    /**
+     * Returns the attributes to start with, when inserting ANSI text at an offset in the document.
+     * The attributes are based on the attributes at the offset using the monospaced font of this kit.
+     */
+    MutableAttributeSet initialAttributes(StyledDocument doc, int offset) {
         MutableAttributeSet attributes = new SimpleAttributeSet(doc.getCharacterElement(offset).getAttributes());
-        StyleConstants.setFontFamily(attributes, "Monospaced");
+        StyleConstants.setFontFamily(attributes, AnsiStyleContext.FONT_FAMILY);
         StyleConstants.setFontSize(attributes, fontSize);
 
         // Set the foreground color to the default ANSI color if no foreground color has been set previously
         if (StyleConstants.getForeground(attributes) == Color.black) { // if no foreground color is set, black is returned?!
             attributes = AnsiAttributesUtil.updateAnsi(attributes, AnsiEscCode.DEFAULT, ansiColors);
         }
+        return attributes;
+    }
 
-        var matcher = ansiEscCodePattern.matcher(ansiText);
-        if (!matcher.find()) {
-            doc.insertString(offset, ansiText, attributes); // no ansi codes found
-            return;
-        }
-
-        var text = ansiText.substring(0, matcher.start());
-        if (!text.isBlank()) {
-            doc.insertString(0, text, attributes); // no ansi codes found
-        }
+    /**
+     * Returns the number of distinct styles, which the kit currently keeps for resolving the styles of ANSI text.
+     * The styles and the transitions between them caused by escape codes are memoized, so the styles are resolved
+     * quickly. The number of styles is bounded, as the styles are forgotten once there are more than 1024 of them.
+     *
+     * @return the number of distinct styles.
+     */
+    public int getStyleCount() {
+        var styles = styleTable.get();
+        return styles != null ? styles.size() : 0;
+    }
 
-        int codeEnd;
-        do {
-            int codeStart = matcher.start();
-            codeEnd = matcher.end();
-            var ansiCode = ansiText.substring(codeStart, codeEnd);
+    /**
+     * Returns the style table for an insert. Inserts running at the same time get separate tables.
+     */
+    AnsiStyleTable acquireStyleTable() {
+        var styles = styleTable.getAndSet(null);
+        return styles != null ? styles : new AnsiStyleTable(this);
+    }
 
-            attributes = AnsiAttributesUtil.updateAnsi(attributes, AnsiEscCode.fromEscCode(ansiCode), ansiColors);
+    /**
+     * Keeps the style table for the next insert, unless it has grown too large.
+     */
+    void releaseStyleTable(AnsiStyleTable styles) {
+        if (styles.size() <= AnsiStyleTable.MAX_STYLES)
+            styleTable.set(styles);
+    }
 
-            var endMatcher = ansiEscCodePattern.matcher(ansiText);
-            if (endMatcher.find(codeEnd)) {
-                text = ansiText.substring(codeEnd, endMatcher.start());
-            } else {
-                text = ansiText.substring(codeEnd);
-            }
-            if (!text.isBlank()) {
-                doc.insertString(doc.getLength(), text, attributes);
-            }
+    /**
+     * Updates the attributes with a single SGR parameter, e.g. 31 for {@link AnsiEscCode#RED}. Unsupported parameters
+     * are ignored. A reset keeps the monospaced font of this kit, so the text keeps using the fonts of the
+     * {@link AnsiStyleContext}.
+     */
+    MutableAttributeSet updateAnsi(MutableAttributeSet attributes, int parameter) {
+        var escCode = AnsiEscCode.findByParameter(parameter);
+        if (escCode == null)
+            return attributes;
+        if (escCode == AnsiEscCode.RESET) {
+            MutableAttributeSet resetAttributes = new SimpleAttributeSet();
+            StyleConstants.setFontFamily(resetAttributes, AnsiStyleContext.FONT_FAMILY);
+            StyleConstants.setFontSize(resetAttributes, fontSize);
+            return AnsiAttributesUtil.updateAnsi(resetAttributes, AnsiEscCode.DEFAULT, ansiColors);
         }
-        while (matcher.find(codeEnd));
+        return AnsiAttributesUtil.updateAnsi(attributes, escCode, ansiColors);
     }
 
     private static String readText(Reader reader) throws IOException {
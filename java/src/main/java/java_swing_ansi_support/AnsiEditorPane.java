@@ -1,9 +1,13 @@
 package java_swing_ansi_support;
 
 import javax.swing.*;
+import javax.swing.text.Document;
 import javax.swing.text.EditorKit;
 import javax.swing.text.StyledDocument;
+import javax.swing.text.View;
 import java.awt.*;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 /**
  * The AnsiEditorPane is a specialized {@link JEditorPane} which will automatically set up an {@link AnsiEditorKit} and
@@ -12,6 +16,10 @@ import java.awt.*;
  */
 public class AnsiEditorPane extends JEditorPane {
 
+    private AnsiLineFilter lineFilter;
+    private AnsiLineImageCache lineImageCache;
+    private final Map<Font, FontMetrics> fontMetrics = new IdentityHashMap<>();
+
     public AnsiEditorPane() {
         setBackground(Color.darkGray);
 
@@ -20,6 +28,134 @@ public class AnsiEditorPane extends JEditorPane {
         setDocument(ansiKit.createDefaultDocument());
     }
 
+    /**
+     * Returns the line filter of the pane.
+     *
+     * @return the line filter, or {@code null} if all lines are shown.
+     */
+    public AnsiLineFilter getLineFilter() {
+        return lineFilter;
+    }
+
+    /**
+     * Sets a line filter, so only the lines of the document matching the filter are shown. The lines keep their
+     * styles, as the pane still shows the same document.
+     *
+     * @param lineFilter is the line filter for the document of the pane, or {@code null} for showing all lines.
+     */
+    public void setLineFilter(AnsiLineFilter lineFilter) {
+        this.lineFilter = lineFilter;
+
+        // The lines that are shown or hidden get a new height
+        View root = getUI().getRootView(this);
+        if (root.getViewCount() > 0) {
+            View section = root.getView(0);
+            for (int i = 0; i < section.getViewCount(); i++) {
+                View paragraph = section.getView(i);
+                paragraph.preferenceChanged(null, false, true);
+            }
+        }
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Returns the memory budget of the line image cache.
+     *
+     * @return the maximum number of bytes used by the line image cache, or 0 if lines are not cached.
+     */
+    public long getLineImageCacheSize() {
+        return lineImageCache != null ? lineImageCache.getMaxBytes() : 0;
+    }
+
+    /**
+     * Sets the memory budget of a cache of pre-rendered line images. With the cache, scrolling mostly draws the
+     * images of the lines instead of rendering every character and background again. The least recently used images
+     * are dropped from the cache, when the images take up more memory than the budget. The cache is disabled by
+     * default.
+     *
+     * @param maxBytes is the maximum number of bytes used by the line images, or 0 for disabling the cache.
+     */
+    public void setLineImageCacheSize(long maxBytes) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("maxBytes cannot be negative. Was: " + maxBytes);
+        lineImageCache = maxBytes > 0 ? new AnsiLineImageCache(maxBytes) : null;
+        repaint();
+    }
+
+    /**
+     * Disposes the pane by replacing its document with a new empty document, and disposing the old document, if it is
+     * an {@link AnsiDocument}. This frees the memory of the text right away, including the off-heap memory.
+     */
+    public void dispose() {
+        var doc = getDocument();
+        setDocument(getEditorKit().createDefaultDocument());
+        if (doc instanceof AnsiDocument)
+            ((AnsiDocument) doc).dispose();
+    }
+
+    AnsiLineImageCache getLineImageCache() {
+        return lineImageCache;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The cached line images are dropped, as they show the lines of the old document.
+     */
+    @Override
+    public void setDocument(Document doc) {
+        super.setDocument(doc);
+        if (lineImageCache != null)
+            lineImageCache.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The cached line images are dropped, as they are rendered on the background.
+     */
+    @Override
+    public void setBackground(Color bg) {
+        super.setBackground(bg);
+        if (lineImageCache != null)
+            lineImageCache.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The cached line images are dropped, as they might use the font.
+     */
+    @Override
+    public void setFont(Font font) {
+        super.setFont(font);
+        if (lineImageCache != null)
+            lineImageCache.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The cached line images are dropped, as the look and feel might change the rendering.
+     */
+    @Override
+    public void updateUI() {
+        super.updateUI();
+        if (lineImageCache != null)
+            lineImageCache.clear();
+        if (fontMetrics != null)
+            fontMetrics.clear(); // the look and feel might change the text antialiasing
+    }
+
+    /**
+     * {@inheritDoc}
+     * The font metrics of the fonts of an {@link AnsiDocument} are only created once, and cached by the pane.
+     */
+    @Override
+    public FontMetrics getFontMetrics(Font font) {
+        var doc = getDocument();
+        if (!(doc instanceof AnsiDocument) || !((AnsiDocument) doc).getAnsiStyleContext().isAnsiFont(font))
+            return super.getFontMetrics(font);
+        return fontMetrics.computeIfAbsent(font, super::getFontMetrics);
+    }
+
     /**
      * {@inheritDoc}
      */
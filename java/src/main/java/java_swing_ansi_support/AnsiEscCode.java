@@ -1,5 +1,6 @@
 package java_swing_ansi_support;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 /**
@@ -14,175 +15,175 @@ public enum AnsiEscCode {
     /**
      * All attributes become turned off
      */
-    RESET("\u001b[0m"),
+    RESET(0),
     /**
      * Bold (increased intensity)
      */
-    BOLD("\u001b[1m"),
+    BOLD(1),
     /**
      * Faint (decreased intensity)
      */
-    FAINT("\u001b[2m"),
+    FAINT(2),
     /**
      * Italic
      */
-    ITALIC("\u001b[3m"),
+    ITALIC(3),
     /**
      * Underline
      */
-    UNDERLINE("\u001b[4m"),
+    UNDERLINE(4),
     /**
      * Not bold
      */
-    NOT_BOLD("\u001b[21m"), // Double underlined on some systems
+    NOT_BOLD(21), // Double underlined on some systems
     /**
      * Normal intensity (neither bold nor fains)
      */
-    NORMAL("\u001b[22m"),
+    NORMAL(22),
     /**
      * Not italic
      */
-    NOT_ITALIC("\u001b[23m"), // nor black letter
+    NOT_ITALIC(23), // nor black letter
     /**
      * Not underlined
      */
-    NOT_UNDERLINED("\u001b[24m"),
+    NOT_UNDERLINED(24),
     /**
      * Black foreground color
      */
-    BLACK("\u001b[30m"),
+    BLACK(30),
     /**
      * Red foreground color
      */
-    RED("\u001b[31m"),
+    RED(31),
     /**
      * Green foreground color
      */
-    GREEN("\u001b[32m"),
+    GREEN(32),
     /**
      * Yellow foreground color
      */
-    YELLOW("\u001b[33m"),
+    YELLOW(33),
     /**
      * Blue foreground color
      */
-    BLUE("\u001b[34m"),
+    BLUE(34),
     /**
      * Magenta foreground color
      */
-    MAGENTA("\u001b[35m"),
+    MAGENTA(35),
     /**
      * Cyan foreground color
      */
-    CYAN("\u001b[36m"),
+    CYAN(36),
     /**
      * White foreground color
      */
-    WHITE("\u001b[37m"),
+    WHITE(37),
     /**
      * Default foreground color
      */
-    DEFAULT("\u001b[39m"),
+    DEFAULT(39),
     /**
      * Bright black foreground color
      */
-    BRIGHT_BLACK("\u001b[90m"),
+    BRIGHT_BLACK(90),
     /**
      * Bright red foreground color
      */
-    BRIGHT_RED("\u001b[91m"),
+    BRIGHT_RED(91),
     /**
      * Bright green foreground color
      */
-    BRIGHT_GREEN("\u001b[92m"),
+    BRIGHT_GREEN(92),
     /**
      * Bright yellow foreground color
      */
-    BRIGHT_YELLOW("\u001b[93m"),
+    BRIGHT_YELLOW(93),
     /**
      * Bright blue foreground color
      */
-    BRIGHT_BLUE("\u001b[94m"),
+    BRIGHT_BLUE(94),
     /**
      * Bright magenta foreground color
      */
-    BRIGHT_MAGENTA("\u001b[95m"),
+    BRIGHT_MAGENTA(95),
     /**
      * Bright cyan foreground color
      */
-    BRIGHT_CYAN("\u001b[96m"),
+    BRIGHT_CYAN(96),
     /**
      * Bright white foreground color
      */
-    BRIGHT_WHITE("\u001b[97m"),
+    BRIGHT_WHITE(97),
     /**
      * Black background color
      */
-    BLACK_BACKGROUND("\u001b[40m"),
+    BLACK_BACKGROUND(40),
     /**
      * Red background color
      */
-    RED_BACKGROUND("\u001b[41m"),
+    RED_BACKGROUND(41),
     /**
      * Green background color
      */
-    GREEN_BACKGROUND("\u001b[42m"),
+    GREEN_BACKGROUND(42),
     /**
      * Yellow background color
      */
-    YELLOW_BACKGROUND("\u001b[43m"),
+    YELLOW_BACKGROUND(43),
     /**
      * Blue background color
      */
-    BLUE_BACKGROUND("\u001b[44m"),
+    BLUE_BACKGROUND(44),
     /**
      * Magenta background color
      */
-    MAGENTA_BACKGROUND("\u001b[45m"),
+    MAGENTA_BACKGROUND(45),
     /**
      * Cyan background color
      */
-    CYAN_BACKGROUND("\u001b[46m"),
+    CYAN_BACKGROUND(46),
     /**
      * White background color
      */
-    WHITE_BACKGROUND("\u001b[47m"),
+    WHITE_BACKGROUND(47),
     /**
      * Default background color
      */
-    DEFAULT_BACKGROUND("\u001b[49m"),
+    DEFAULT_BACKGROUND(49),
     /**
      * Bright black background color
      */
-    BRIGHT_BLACK_BACKGROUND("\u001b[100m"),
+    BRIGHT_BLACK_BACKGROUND(100),
     /**
      * Bright red background color
      */
-    BRIGHT_RED_BACKGROUND("\u001b[101m"),
+    BRIGHT_RED_BACKGROUND(101),
     /**
      * Bright green background color
      */
-    BRIGHT_GREEN_BACKGROUND("\u001b[102m"),
+    BRIGHT_GREEN_BACKGROUND(102),
     /**
      * Bright yellow background color
      */
-    BRIGHT_YELLOW_BACKGROUND("\u001b[103m"),
+    BRIGHT_YELLOW_BACKGROUND(103),
     /**
      * Bright blue background color
      */
-    BRIGHT_BLUE_BACKGROUND("\u001b[104m"),
+    BRIGHT_BLUE_BACKGROUND(104),
     /**
      * Bright magenta background color
      */
-    BRIGHT_MAGENTA_BACKGROUND("\u001b[105m"),
+    BRIGHT_MAGENTA_BACKGROUND(105),
     /**
      * Bright cyan background color
      */
-    BRIGHT_CYAN_BACKGROUND("\u001b[106m"),
+    BRIGHT_CYAN_BACKGROUND(106),
     /**
      * Bright white background color
      */
-    BRIGHT_WHITE_BACKGROUND("\u001b[107m"),
+    BRIGHT_WHITE_BACKGROUND(107),
     ;
 
     /**
@@ -190,8 +191,71 @@ public enum AnsiEscCode {
      */
     public final String escCode;
 
-    AnsiEscCode(String escCode) {
-        this.escCode = escCode;
+    /**
+     * The SGR (Select Graphic Rendition) parameter of the escape code, e.g. 1 for {@link #BOLD}.
+     */
+    public final int parameter;
+
+    private final byte[] escBytes;
+
+    // The style slots, where the escape codes of the same slot override each other
+    static final int INTENSITY_SLOT = 0;
+    static final int ITALIC_SLOT = 1;
+    static final int UNDERLINE_SLOT = 2;
+    static final int FOREGROUND_SLOT = 3;
+    static final int BACKGROUND_SLOT = 4;
+    static final int STYLE_SLOTS = 5;
+
+    // The maximum length of an escape code. A longer sequence is not recognized as an escape code, but shown as text,
+    // so the time for matching escape codes stays linear for any input, e.g. a binary file printed to the console.
+    static final int MAX_ESC_CODE_LENGTH = 256;
+
+    private static final AnsiEscCode[] byParameter = new AnsiEscCode[108];
+
+    static {
+        for (var ansiEscCode : values()) {
+            byParameter[ansiEscCode.parameter] = ansiEscCode;
+        }
+    }
+
+    AnsiEscCode(int parameter) {
+        this.parameter = parameter;
+        this.escCode = "\u001b[" + parameter + "m";
+        this.escBytes = escCode.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Returns the escape code as ASCII bytes, which can be written directly to a byte stream or buffer.
+     * The returned array is cached and shared, so it must not be modified.
+     *
+     * @return the escape code as ASCII bytes.
+     */
+    public byte[] escBytes() {
+        return escBytes;
+    }
+
+    /**
+     * Returns the style slot of the escape code, e.g. {@link #FOREGROUND_SLOT} for {@link #RED}, or -1 for
+     * {@link #RESET}, which resets all slots.
+     */
+    int styleSlot() {
+        switch (this) {
+            case RESET:
+                return -1;
+            case BOLD:
+            case FAINT:
+            case NOT_BOLD:
+            case NORMAL:
+                return INTENSITY_SLOT;
+            case ITALIC:
+            case NOT_ITALIC:
+                return ITALIC_SLOT;
+            case UNDERLINE:
+            case NOT_UNDERLINED:
+                return UNDERLINE_SLOT;
+            default:
+                return (parameter >= 40 && parameter <= 49) || parameter >= 100 ? BACKGROUND_SLOT : FOREGROUND_SLOT;
+        }
     }
 
     /**
@@ -217,4 +281,26 @@ public enum AnsiEscCode {
         throw new IllegalStateException(
                 "No enum entry is defined for escape code '" + escCode.replace("\u001b", "") + "'");
     }
+
+    /**
+     * Returns a {@code AnsiEscCode} instance based on an SGR parameter, e.g. one of the parameters of the compound
+     * escape code {@code ESC[1;31m}.
+     *
+     * @return a {@code AnsiEscCode} instance based on an SGR parameter.
+     * @throws IllegalStateException if no {@code AnsiEscCode} exists for the parameter.
+     */
+    public static AnsiEscCode fromParameter(int parameter) {
+        var ansiEscCode = findByParameter(parameter);
+        if (ansiEscCode != null) {
+            return ansiEscCode;
+        }
+        throw new IllegalStateException("No enum entry is defined for escape code '[" + parameter + "m'");
+    }
+
+    /**
+     * Returns a {@code AnsiEscCode} instance based on an SGR parameter, or {@code null} if none exists.
+     */
+    static AnsiEscCode findByParameter(int parameter) {
+        return (parameter >= 0 && parameter < byParameter.length) ? byParameter[parameter] : null;
+    }
 }
@@ -0,0 +1,279 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The AnsiHtmlExporter converts ANSI text into HTML, e.g. for publishing console output on a web page.
+ * <p>
+ * The text is converted while it is read, so the memory usage stays the same for any size of input, and no Swing
+ * document is needed. Styled text is wrapped in {@code <span>} elements with a CSS class per style, like
+ * {@code <span class="a1 a31">} for bold red text. The classes are defined once in a style sheet with the colors used
+ * by the {@link AnsiEditorKit}, which keeps the HTML compact:
+ * <pre>
+ *     try (var reader = Files.newBufferedReader(logPath); var writer = Files.newBufferedWriter(htmlPath)) {
+ *         new AnsiHtmlExporter().export(reader, writer);
+ *     }
+ * </pre>
+ * The text is split into text and escape codes by the same {@link AnsiTokenizer} as used by the {@link AnsiEditorKit},
+ * so the styles match the ones shown by the kit, and an ESC that does not start an escape code is kept as text.
+ * Carriage returns and CSI escape codes other than SGR codes, like cursor movements, are left out, as HTML has no
+ * cursor to move.
+ */
+public class AnsiHtmlExporter {
+
+    private static final char ESC = 0x1b;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final IAnsiColors ansiColors;
+
+    // The start tag of the span per style id as used by the AnsiTokenizer
+    private final Map<Integer, String> spanStarts = new ConcurrentHashMap<>();
+
+    /**
+     * Creates an AnsiHtmlExporter using the {@link DefaultAnsiColors} as ANSI colors.
+     */
+    public AnsiHtmlExporter() {
+        this(new DefaultAnsiColors());
+    }
+
+    /**
+     * Creates an AnsiHtmlExporter using specific ANSI colors.
+     *
+     * @param ansiColors is the {@link IAnsiColors} that defines the foreground and background colors of the style sheet.
+     */
+    public AnsiHtmlExporter(IAnsiColors ansiColors) {
+        this.ansiColors = ansiColors;
+    }
+
+    /**
+     * Returns the CSS style sheet with the classes used by the exported HTML.
+     *
+     * @return the CSS style sheet.
+     */
+    public String getStyleSheet() {
+        var css = new StringBuilder()
+                .append("pre.ansi{background-color:").append(toHex(Color.darkGray))
+                .append(";color:").append(toHex(color(AnsiEscCode.DEFAULT))).append("}\n")
+                .append(".a1{font-weight:bold}\n")
+                .append(".a3{font-style:italic}\n")
+                .append(".a4{text-decoration:underline}\n");
+        for (var escCode : AnsiEscCode.values()) {
+            int slot = escCode.styleSlot();
+            if (escCode.parameter == 39 || escCode.parameter == 49)
+                continue; // the default colors have no class
+            if (slot == AnsiEscCode.FOREGROUND_SLOT) {
+                css.append(".a").append(escCode.parameter).append("{color:").append(toHex(color(escCode))).append("}\n");
+            } else if (slot == AnsiEscCode.BACKGROUND_SLOT) {
+                css.append(".a").append(escCode.parameter).append("{background-color:").append(toHex(color(escCode))).append("}\n");
+            }
+        }
+        return css.toString();
+    }
+
+    /**
+     * Reads UTF-8 encoded ANSI text from an input stream, and writes it as a UTF-8 encoded HTML page.
+     * See {@link #export(Reader, Writer)}.
+     *
+     * @param inputStream  is the input stream to read from.
+     * @param outputStream is the output stream to write to.
+     */
+    public void export(InputStream inputStream, OutputStream outputStream) throws IOException {
+        var writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        export(new InputStreamReader(inputStream, StandardCharsets.UTF_8), writer);
+        writer.flush();
+    }
+
+    /**
+     * Reads ANSI text from a reader, and writes it as an HTML page with the style sheet.
+     *
+     * @param reader is the reader to read the ANSI text from.
+     * @param writer is the writer to write the HTML to.
+     */
+    public void export(Reader reader, Writer writer) throws IOException {
+        writer.write("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<style>\n");
+        writer.write(getStyleSheet());
+        writer.write("</style>\n</head>\n<body>\n");
+        exportFragment(reader, writer);
+        writer.write("\n</body>\n</html>\n");
+    }
+
+    /**
+     * Reads ANSI text from a reader, and writes it as a {@code <pre class="ansi">} element without the style sheet,
+     * e.g. for embedding it into a page that includes the style sheet.
+     *
+     * @param reader is the reader to read the ANSI text from.
+     * @param writer is the writer to write the HTML to.
+     */
+    public void exportFragment(Reader reader, Writer writer) throws IOException {
+        new Conversion(reader, writer).run();
+    }
+
+    /**
+     * Returns the start tag of the span for a style, or {@code null} if the style has no classes.
+     */
+    private String spanStart(int styleId) {
+        if (styleId == 0)
+            return null;
+        return spanStarts.computeIfAbsent(styleId, k -> {
+            var classes = new StringBuilder();
+            for (var escCode : AnsiTokenizer.escCodes(styleId)) {
+                int parameter = escCode.parameter;
+                if (parameter == AnsiEscCode.BOLD.parameter || parameter == AnsiEscCode.ITALIC.parameter
+                        || parameter == AnsiEscCode.UNDERLINE.parameter
+                        || (parameter >= 30 && parameter <= 47 && parameter != 39) || parameter >= 90) {
+                    classes.append(classes.length() == 0 ? "" : " ").append('a').append(parameter);
+                }
+            }
+            return classes.length() == 0 ? null : "<span class=\"" + classes + "\">";
+        });
+    }
+
+    private Color color(AnsiEscCode escCode) {
+        var attributes = AnsiAttributesUtil.updateAnsi(new SimpleAttributeSet(), escCode, ansiColors);
+        return escCode.styleSlot() == AnsiEscCode.BACKGROUND_SLOT
+                ? StyleConstants.getBackground(attributes)
+                : StyleConstants.getForeground(attributes);
+    }
+
+    private static String toHex(Color color) {
+        return String.format("#%06x", color.getRGB() & 0xffffff);
+    }
+
+    /**
+     * A single conversion from a reader to a writer.
+     */
+    private final class Conversion {
+        private final Reader reader;
+        private final Writer writer;
+        private final AnsiTokenizer.TokenCursor tokens = new AnsiTokenizer.TokenCursor();
+
+        private final char[] in = new char[BUFFER_SIZE];
+        private final CharBuffer inChars = CharBuffer.wrap(in);
+        private int inStart;
+        private int inEnd;
+        private boolean endOfInput;
+
+        private final char[] out = new char[BUFFER_SIZE];
+        private int outLength;
+
+        private int style; // the style id as used by the AnsiTokenizer
+        private boolean styleChanged;
+        private String openSpanStart; // the start tag of the open span, or null if no span is open
+
+        Conversion(Reader reader, Writer writer) {
+            this.reader = reader;
+            this.writer = writer;
+        }
+
+        void run() throws IOException {
+            append("<pre class=\"ansi\">");
+            while (fill()) {
+                tokens.reset(inChars, inStart, inEnd, endOfInput);
+                while (tokens.next()) {
+                    if (tokens.type() == AnsiTokenizer.TEXT) {
+                        appendText(tokens.start(), tokens.end());
+                    } else if (tokens.type() == AnsiTokenizer.SGR_CODE) {
+                        style = AnsiTokenizer.updateStyle(style, inChars, tokens.start(), tokens.end());
+                        styleChanged = true;
+                    }
+                }
+                // An escape code at the end of the input read so far is matched again with the next read
+                inStart = tokens.position();
+            }
+            if (openSpanStart != null)
+                append("</span>");
+            append("</pre>");
+            flush();
+        }
+
+        /**
+         * Reads more input after the unprocessed input.
+         *
+         * @return {@code false} if there is no more input to process.
+         */
+        private boolean fill() throws IOException {
+            if (inStart == inEnd && endOfInput)
+                return false;
+            if (inStart > 0) {
+                System.arraycopy(in, inStart, in, 0, inEnd - inStart);
+                inEnd -= inStart;
+                inStart = 0;
+            }
+            if (!endOfInput) {
+                int n = reader.read(in, inEnd, in.length - inEnd);
+                if (n < 0)
+                    endOfInput = true;
+                else
+                    inEnd += n;
+            }
+            return inStart < inEnd;
+        }
+
+        /**
+         * Appends text with the current style, where the HTML special characters are escaped. An ESC that does not start
+         * an escape code is text, like in the {@link AnsiEditorKit}, and is written as a character reference.
+         */
+        private void appendText(int start, int end) throws IOException {
+            if (styleChanged) {
+                styleChanged = false;
+                var spanStart = spanStart(style);
+                if (spanStart != openSpanStart) { // the start tags are shared per style
+                    if (openSpanStart != null)
+                        append("</span>");
+                    if (spanStart != null)
+                        append(spanStart);
+                    openSpanStart = spanStart;
+                }
+            }
+            int runStart = start;
+            for (int i = start; i < end; i++) {
+                char c = in[i];
+                if (c == '<' || c == '>' || c == '&' || c == ESC) {
+                    append(in, runStart, i);
+                    append(c == '<' ? "&lt;" : c == '>' ? "&gt;" : c == '&' ? "&amp;" : "&#x1b;");
+                    runStart = i + 1;
+                }
+            }
+            append(in, runStart, end);
+        }
+
+        private void append(String s) throws IOException {
+            if (outLength + s.length() > out.length)
+                flush();
+            s.getChars(0, s.length(), out, outLength);
+            outLength += s.length();
+        }
+
+        private void append(char[] chars, int start, int end) throws IOException {
+            int length = end - start;
+            if (outLength + length > out.length) {
+                flush();
+                if (length > out.length) {
+                    writer.write(chars, start, length);
+                    return;
+                }
+            }
+            System.arraycopy(chars, start, out, outLength, length);
+            outLength += length;
+        }
+
+        private void flush() throws IOException {
+            writer.write(out, 0, outLength);
+            outLength = 0;
+        }
+    }
+}
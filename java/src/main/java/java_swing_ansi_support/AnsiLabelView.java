@@ -0,0 +1,37 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.Element;
+import javax.swing.text.LabelView;
+import java.awt.Color;
+
+/**
+ * The view of a run of styled text in a line of an {@link AnsiDocument}.
+ * <p>
+ * The view does not paint its own background. Instead, the {@link AnsiParagraphView} paints the backgrounds of all the
+ * runs in a row at once, so adjacent runs with the same background color are filled with a single rectangle.
+ */
+class AnsiLabelView extends LabelView {
+
+    AnsiLabelView(Element elem) {
+        super(elem);
+    }
+
+    /**
+     * Returns {@code null}, as the background is painted by the paragraph view.
+     *
+     * @return {@code null}.
+     */
+    @Override
+    public Color getBackground() {
+        return null;
+    }
+
+    /**
+     * Returns the background color of the run, which is painted by the paragraph view.
+     *
+     * @return the background color, or {@code null} if the run has no background color.
+     */
+    Color getRunBackground() {
+        return super.getBackground();
+    }
+}
@@ -0,0 +1,166 @@
+package java_swing_ansi_support;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The AnsiLineFilter selects the lines of an {@link AnsiDocument} matching a regular expression, e.g. {@code ERROR|WARN}.
+ * <p>
+ * Set the filter on an {@link AnsiEditorPane} with {@link AnsiEditorPane#setLineFilter(AnsiLineFilter)} to only show
+ * the matching lines. The pane still shows the same document, so no text is copied or parsed again, and the filter can
+ * be switched on and off quickly, also for logs with millions of lines.
+ * <p>
+ * The filter keeps a sorted list of the matching lines, which is updated while text is appended to the document.
+ */
+public class AnsiLineFilter implements Closeable {
+
+    private final AnsiDocument doc;
+    private final Matcher matcher;
+    private final Segment segment = new Segment();
+
+    private int[] visibleLines = new int[1024];
+    private int visibleLineCount;
+    private int lineCount;
+
+    private final DocumentListener documentListener = new DocumentListener() {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            linesChanged(e.getOffset());
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            linesChanged(e.getOffset());
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+    };
+
+    /**
+     * Creates a filter for the lines of a document matching a regular expression.
+     *
+     * @param doc     is the document to filter.
+     * @param pattern is the pattern that is searched for in each line.
+     */
+    public AnsiLineFilter(AnsiDocument doc, Pattern pattern) {
+        this.doc = doc;
+        this.matcher = pattern.matcher("");
+        doc.render(() -> {
+            lineCount = doc.getLineCount();
+            for (int line = 0; line < lineCount; line++) {
+                if (matches(line))
+                    addVisibleLine(visibleLineCount, line);
+            }
+            doc.addDocumentListener(documentListener);
+        });
+    }
+
+    /**
+     * Returns the document being filtered.
+     *
+     * @return the document being filtered.
+     */
+    public AnsiDocument getDocument() {
+        return doc;
+    }
+
+    /**
+     * Returns the number of lines matching the filter.
+     *
+     * @return the number of visible lines.
+     */
+    public int getVisibleLineCount() {
+        return visibleLineCount;
+    }
+
+    /**
+     * Returns a line matching the filter.
+     *
+     * @param index is the index of the visible line starting from 0.
+     * @return the line in the document starting from 0.
+     */
+    public int getVisibleLine(int index) {
+        if (index < 0 || index >= visibleLineCount)
+            throw new IllegalArgumentException("index is not a visible line. Was: " + index);
+        return visibleLines[index];
+    }
+
+    /**
+     * Checks if a line of the document matches the filter in O(log n) time.
+     *
+     * @param line is the line in the document starting from 0.
+     * @return {@code true} if the line is visible; {@code false} otherwise.
+     */
+    public boolean isVisible(int line) {
+        return Arrays.binarySearch(visibleLines, 0, visibleLineCount, line) >= 0;
+    }
+
+    /**
+     * Stops updating the filter when the document changes.
+     */
+    @Override
+    public void close() {
+        doc.removeDocumentListener(documentListener);
+    }
+
+    /**
+     * Updates the visible lines after text has been inserted or removed at an offset. The lines after the changed
+     * lines are only moved, so appending text only needs to check the appended lines.
+     */
+    private void linesChanged(int offset) {
+        int firstLine = doc.lineOfOffset(offset);
+        int addedLines = doc.getLineCount() - lineCount; // negative if lines have been removed
+        lineCount = doc.getLineCount();
+
+        // Remove the changed lines, and move the lines after them
+        int from = visibleIndex(firstLine);
+        int to = visibleIndex(firstLine + 1 + Math.max(-addedLines, 0));
+        System.arraycopy(visibleLines, to, visibleLines, from, visibleLineCount - to);
+        visibleLineCount -= to - from;
+        for (int i = from; i < visibleLineCount; i++) {
+            visibleLines[i] += addedLines;
+        }
+
+        // Add the changed lines matching the filter
+        int index = from;
+        for (int line = firstLine; line <= firstLine + Math.max(addedLines, 0); line++) {
+            if (matches(line))
+                addVisibleLine(index++, line);
+        }
+    }
+
+    /**
+     * Returns the index of the first visible line at or after a line.
+     */
+    private int visibleIndex(int line) {
+        int index = Arrays.binarySearch(visibleLines, 0, visibleLineCount, line);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private void addVisibleLine(int index, int line) {
+        if (visibleLineCount == visibleLines.length)
+            visibleLines = Arrays.copyOf(visibleLines, visibleLineCount * 2);
+        System.arraycopy(visibleLines, index, visibleLines, index + 1, visibleLineCount - index);
+        visibleLines[index] = line;
+        visibleLineCount++;
+    }
+
+    private boolean matches(int line) {
+        int start = doc.offsetOfLine(line);
+        int end = line + 1 < doc.getLineCount() ? doc.offsetOfLine(line + 1) - 1 : doc.getLength(); // without newline
+        try {
+            doc.getText(start, end - start, segment);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+        return matcher.reset(segment).find();
+    }
+}
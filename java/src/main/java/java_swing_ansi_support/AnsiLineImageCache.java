@@ -0,0 +1,91 @@
+package java_swing_ansi_support;
+
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of pre-rendered images of lines, which is used by the {@link AnsiParagraphView}s of an
+ * {@link AnsiEditorPane}. The least recently used images are dropped, when the images take up more memory than the
+ * memory budget of the cache.
+ * <p>
+ * An image is cached per paragraph view together with the edit count of the view, which changes whenever the text or
+ * styles of the line are changed, and the size of the image. So edited lines are rendered again, and the new image
+ * replaces the old one. The image of a view is dropped when the view is removed, e.g. when the line is trimmed, and
+ * all images are dropped when the document of the pane is replaced, so the cache never keeps views alive.
+ */
+final class AnsiLineImageCache {
+
+    private final LinkedHashMap<AnsiParagraphView, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final long maxBytes;
+    private long bytes;
+
+    AnsiLineImageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the cached image of a line, or {@code null} if the image has not been cached.
+     */
+    BufferedImage get(AnsiParagraphView view, int editCount, int width, int height) {
+        var entry = entries.get(view);
+        return entry != null && entry.editCount == editCount && entry.image.getWidth() == width
+                && entry.image.getHeight() == height ? entry.image : null;
+    }
+
+    /**
+     * Caches the image of a line, unless the image takes up more than a quarter of the memory budget.
+     */
+    void put(AnsiParagraphView view, int editCount, BufferedImage image) {
+        long imageBytes = imageBytes(image);
+        if (imageBytes > maxBytes / 4) {
+            remove(view);
+            return;
+        }
+
+        var previous = entries.put(view, new Entry(editCount, image));
+        if (previous != null)
+            bytes -= imageBytes(previous.image);
+        bytes += imageBytes;
+
+        var iterator = entries.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= imageBytes(iterator.next().image);
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Drops the image of a line, e.g. when its view is removed.
+     */
+    void remove(AnsiParagraphView view) {
+        var entry = entries.remove(view);
+        if (entry != null)
+            bytes -= imageBytes(entry.image);
+    }
+
+    /**
+     * Drops all images, e.g. when the colors or font of the pane have been changed.
+     */
+    void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    private static long imageBytes(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+
+    private static final class Entry {
+        private final int editCount;
+        private final BufferedImage image;
+
+        Entry(int editCount, BufferedImage image) {
+            this.editCount = editCount;
+            this.image = image;
+        }
+    }
+}
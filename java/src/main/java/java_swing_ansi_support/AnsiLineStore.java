@@ -0,0 +1,346 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.StyledDocument;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The AnsiLineStore keeps appended ANSI text as raw lines, and only parses a line when it is needed, e.g. when it is
+ * shown, searched or exported. Most lines of a burst of console output are never looked at, so appending is about as
+ * fast as copying the text.
+ * <p>
+ * While appending, the store only finds the line breaks, and keeps two things per line: whether the line is plain text
+ * without escape codes and carriage returns, other than a {@code \r\n} line break, and the style at the start of the
+ * line, which is set by the escape codes of the lines before it. Plain lines need no parsing at all, and the style
+ * after a line with escape codes is found by applying its SGR codes, without creating any attributes. The styled runs
+ * of a line are resolved on demand, where carriage returns overwrite the line like in a document, and the most
+ * recently resolved lines are cached.
+ * <p>
+ * Use {@link AnsiEditorKit#readLines(AnsiLineStore, StyledDocument, int, int)} to show a range of lines in a document,
+ * e.g. the lines currently being viewed:
+ * <pre>
+ *     store.append(output);
+ *     kit.readLines(store, doc, firstLine, 100);
+ * </pre>
+ * The AnsiLineStore is thread-safe, so text can be appended on one thread, while lines are shown on another.
+ */
+public final class AnsiLineStore {
+
+    private static final char ESC = 0x1b;
+    private static final int DEFAULT_CACHED_LINES = 1024;
+
+    private final StringBuilder text = new StringBuilder();
+
+    // The start offset and the style id at the start of each line, and the lines that are not plain text. The last
+    // line is the line being appended to.
+    private int[] lineStarts = new int[1024];
+    private int[] lineStyles = new int[1024];
+    private final BitSet parsedLines = new BitSet();
+    private int lineBreaks;
+
+    private final Map<Integer, List<AnsiTokenizer.Run>> resolvedLines;
+
+    /**
+     * Creates an empty AnsiLineStore, which caches the runs of the 1024 most recently resolved lines.
+     */
+    public AnsiLineStore() {
+        this(DEFAULT_CACHED_LINES);
+    }
+
+    /**
+     * Creates an empty AnsiLineStore.
+     *
+     * @param cachedLines is the maximum number of resolved lines to cache.
+     */
+    public AnsiLineStore(int cachedLines) {
+        if (cachedLines < 0)
+            throw new IllegalArgumentException("cachedLines cannot be negative. Was: " + cachedLines);
+        resolvedLines = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<AnsiTokenizer.Run>> eldest) {
+                return size() > cachedLines;
+            }
+        };
+    }
+
+    /**
+     * Appends ANSI text to the store. The text can end in the middle of a line, or even an escape code, which is
+     * continued by the text appended next.
+     *
+     * @param ansiText is the ANSI text to append.
+     */
+    public synchronized void append(CharSequence ansiText) {
+        var appended = ansiText.toString();
+        int offset = text.length();
+        text.append(appended);
+        resolvedLines.remove(lineBreaks); // the last line is continued
+
+        // Find the line breaks, and the first escape code or carriage return of each line with String.indexOf(), which
+        // is optimized by the JVM
+        int nextEsc = appended.indexOf(ESC);
+        int nextCr = appended.indexOf('\r');
+        for (int newline, from = 0; (newline = appended.indexOf('\n', from)) >= 0; from = newline + 1) {
+            if (nextCr >= 0 && nextCr == newline - 1)
+                nextCr = appended.indexOf('\r', newline + 1); // the line break is \r\n
+            if ((nextEsc >= 0 && nextEsc < newline) || (nextCr >= 0 && nextCr < newline)) {
+                parsedLines.set(lineBreaks);
+                if (nextEsc >= 0 && nextEsc < newline)
+                    nextEsc = appended.indexOf(ESC, newline + 1);
+                if (nextCr >= 0 && nextCr < newline)
+                    nextCr = appended.indexOf('\r', newline + 1);
+            }
+            addLine(appended, offset, offset + newline + 1);
+        }
+        if (nextEsc >= 0 || nextCr >= 0)
+            parsedLines.set(lineBreaks);
+    }
+
+    /**
+     * Returns the number of lines in the store, where the last line is only counted if it is not empty.
+     *
+     * @return the number of lines.
+     */
+    public synchronized int lineCount() {
+        return lineBreaks + (lineStarts[lineBreaks] < text.length() ? 1 : 0);
+    }
+
+    /**
+     * Checks if a line is plain text, i.e. it has no escape codes or carriage returns, and needs no parsing.
+     *
+     * @param line is the line number starting from 0.
+     * @return {@code true} if the line is plain text; {@code false} otherwise.
+     * @throws IllegalArgumentException if the line does not exist.
+     */
+    public synchronized boolean isPlain(int line) {
+        checkLine(line);
+        return !parsedLines.get(line);
+    }
+
+    /**
+     * Returns the style at the start of a line, which has been set by the escape codes of the lines before it.
+     *
+     * @param line is the line number starting from 0.
+     * @return the style id as used by the {@link AnsiTokenizer}, where 0 is the default style.
+     * @throws IllegalArgumentException if the line does not exist.
+     */
+    public synchronized int styleIdAt(int line) {
+        checkLine(line);
+        return lineStyles[line];
+    }
+
+    /**
+     * Returns the styled runs of a line without the line break. The runs of lines with escape codes are resolved when
+     * they are first needed, and cached.
+     *
+     * @param line is the line number starting from 0.
+     * @return the runs of the line, which refer to the ANSI text of the line.
+     * @throws IllegalArgumentException if the line does not exist.
+     */
+    public synchronized List<AnsiTokenizer.Run> lineRuns(int line) {
+        checkLine(line);
+        var ansiLine = ansiLine(line);
+        if (!parsedLines.get(line)) {
+            return ansiLine.isEmpty() ? List.of()
+                    : List.of(new AnsiTokenizer.Run(ansiLine, 0, ansiLine.length(), lineStyles[line]));
+        }
+        var runs = resolvedLines.get(line);
+        if (runs == null) {
+            runs = Collections.unmodifiableList(resolveRuns(ansiLine, lineStyles[line]));
+            resolvedLines.put(line, runs);
+        }
+        return runs;
+    }
+
+    /**
+     * Returns the text of a line without the line break and without escape codes, e.g. for searching the lines.
+     *
+     * @param line is the line number starting from 0.
+     * @return the text of the line.
+     * @throws IllegalArgumentException if the line does not exist.
+     */
+    public synchronized String lineText(int line) {
+        checkLine(line);
+        if (!parsedLines.get(line))
+            return ansiLine(line);
+        var lineText = new StringBuilder();
+        for (var run : lineRuns(line)) {
+            lineText.append(run.source(), run.start(), run.end());
+        }
+        return lineText.toString();
+    }
+
+    /**
+     * Returns a new reader reading the ANSI text of a range of lines, e.g. for exporting the lines with the
+     * {@link AnsiHtmlExporter}. The text starts with an escape code that restores the style at the first line, which
+     * has been set by escape codes in the preceding lines.
+     *
+     * @param firstLine is the first line to read starting from 0.
+     * @param lineCount is the number of lines to read. Lines after the last line are ignored.
+     * @return a new reader reading the ANSI text of the lines.
+     */
+    public Reader newReader(int firstLine, int lineCount) {
+        return new StringReader(ansiText(firstLine, lineCount));
+    }
+
+    /**
+     * Returns the ANSI text of a range of lines, which starts with an escape code that restores the style at the first
+     * line.
+     */
+    synchronized String ansiText(int firstLine, int lineCount) {
+        if (firstLine < 0)
+            throw new IllegalArgumentException("firstLine cannot be negative. Was: " + firstLine);
+        if (lineCount < 0)
+            throw new IllegalArgumentException("lineCount cannot be negative. Was: " + lineCount);
+        int start = lineStart(firstLine);
+        int end = lineStart((int) Math.min((long) firstLine + lineCount, Integer.MAX_VALUE));
+        if (start == end)
+            return "";
+
+        var ansiText = new StringBuilder(end - start + 16);
+        for (var escCode : AnsiTokenizer.escCodes(lineStyles[firstLine])) {
+            ansiText.append(escCode.escCode);
+        }
+        return ansiText.append(text, start, end).toString();
+    }
+
+    /**
+     * Returns the offset of a line, or the length of the text for lines after the last line.
+     */
+    private int lineStart(int line) {
+        return line <= lineBreaks ? lineStarts[line] : text.length();
+    }
+
+    /**
+     * Adds a line starting at an offset after a line break, with the style at the end of the line before it. The line
+     * before it is scanned in the appended text, unless it starts before the appended text.
+     */
+    private void addLine(String appended, int appendedOffset, int start) {
+        int style = lineStyles[lineBreaks];
+        if (parsedLines.get(lineBreaks)) {
+            int lineStart = lineStarts[lineBreaks];
+            style = lineStart >= appendedOffset
+                    ? AnsiTokenizer.styleAfter(style, appended, lineStart - appendedOffset, start - appendedOffset)
+                    : AnsiTokenizer.styleAfter(style, text, lineStart, start);
+        }
+        lineBreaks++;
+        if (lineBreaks == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineBreaks * 2);
+            lineStyles = Arrays.copyOf(lineStyles, lineBreaks * 2);
+        }
+        lineStarts[lineBreaks] = start;
+        lineStyles[lineBreaks] = style;
+    }
+
+    /**
+     * Returns the ANSI text of a line without the line break, which is {@code \n} or {@code \r\n}.
+     */
+    private String ansiLine(int line) {
+        int end = line < lineBreaks ? lineStarts[line + 1] - 1 : text.length();
+        if (line < lineBreaks && end > lineStarts[line] && text.charAt(end - 1) == '\r')
+            end--;
+        return text.substring(lineStarts[line], end);
+    }
+
+    /**
+     * Resolves the runs of a line with escape codes the same way as the {@link AnsiDocumentWriter} writes the line
+     * into a document. A carriage return moves the cursor back to the start of the line, and the text after it
+     * overwrites the text of the line code point by code point, so a progress line shows its last update. Erasing in
+     * the line with {@code ESC[K} is applied too, while other CSI codes like cursor movements are ignored, as they move
+     * the cursor to other lines.
+     */
+    private static List<AnsiTokenizer.Run> resolveRuns(String ansiLine, int styleId) {
+        var runs = new ArrayList<AnsiTokenizer.Run>();
+        var lineText = new StringBuilder(); // the text of the runs, to count the code points
+        int cursor = 0;
+        var tokens = new AnsiTokenizer.TokenCursor().reset(ansiLine, 0, ansiLine.length(), true);
+        while (tokens.next()) {
+            int start = tokens.start();
+            int end = tokens.end();
+            if (tokens.type() == AnsiTokenizer.SGR_CODE) {
+                styleId = AnsiTokenizer.updateStyle(styleId, ansiLine, start, end);
+            } else if (tokens.type() == AnsiTokenizer.TEXT) {
+                int codePoints = Character.codePointCount(ansiLine, start, end);
+                int overwrittenEnd = offsetByCodePoints(lineText, cursor, codePoints);
+                replace(runs, lineText, cursor, overwrittenEnd, new AnsiTokenizer.Run(ansiLine, start, end, styleId));
+                cursor += end - start;
+            } else if (ansiLine.charAt(start) == '\r') {
+                cursor = 0;
+            } else if (ansiLine.charAt(end - 1) == 'K') {
+                int mode = Math.max(AnsiTokenizer.firstParameter(ansiLine, start, end), 0);
+                if (mode == 0 || mode == 2)
+                    replace(runs, lineText, cursor, lineText.length(), null);
+                if ((mode == 1 || mode == 2) && cursor > 0) {
+                    int column = Character.codePointCount(lineText, 0, cursor);
+                    var spaces = " ".repeat(column);
+                    replace(runs, lineText, 0, cursor, new AnsiTokenizer.Run(spaces, 0, column, runs.get(0).styleId()));
+                    cursor = column;
+                }
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Replaces the text of the runs from a start index to an end index with a run, or removes it if the run is null.
+     * The runs around the replaced text are cut to the parts that are kept.
+     */
+    private static void replace(List<AnsiTokenizer.Run> runs, StringBuilder lineText, int start, int end,
+                                AnsiTokenizer.Run replacement) {
+        int index = 0;
+        int runStart = 0;
+        while (index < runs.size() && runStart + length(runs.get(index)) <= start) {
+            runStart += length(runs.get(index++));
+        }
+        // The run at the start index is cut into the part before the start index, and the part after the end index
+        if (index < runs.size() && runStart < start) {
+            var run = runs.get(index);
+            runs.set(index, cut(run, 0, start - runStart));
+            runs.add(++index, cut(run, start - runStart, length(run)));
+            runStart = start;
+        }
+        while (index < runs.size() && runStart + length(runs.get(index)) <= end) {
+            runStart += length(runs.remove(index));
+        }
+        if (index < runs.size() && runStart < end)
+            runs.set(index, cut(runs.get(index), end - runStart, length(runs.get(index))));
+        if (replacement != null) {
+            runs.add(index, replacement);
+            lineText.replace(start, end, replacement.text().toString());
+        } else {
+            lineText.delete(start, end);
+        }
+    }
+
+    private static AnsiTokenizer.Run cut(AnsiTokenizer.Run run, int from, int to) {
+        return new AnsiTokenizer.Run(run.source(), run.start() + from, run.start() + to, run.styleId());
+    }
+
+    private static int length(AnsiTokenizer.Run run) {
+        return run.end() - run.start();
+    }
+
+    /**
+     * Returns the index a number of code points after an index in a text, or the length of the text if it has fewer
+     * code points.
+     */
+    private static int offsetByCodePoints(CharSequence text, int index, int codePoints) {
+        while (codePoints > 0 && index < text.length()) {
+            index += Character.isHighSurrogate(text.charAt(index)) && index + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(index + 1)) ? 2 : 1;
+            codePoints--;
+        }
+        return index;
+    }
+
+    private void checkLine(int line) {
+        if (line < 0 || line >= lineCount())
+            throw new IllegalArgumentException("line does not exist. Was: " + line);
+    }
+}
@@ -0,0 +1,276 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.StyledDocument;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The AnsiMappedFile gives access to a file with ANSI text through memory-mapping, so the content is paged in by the
+ * operating system on demand instead of being read onto the heap. This makes it possible to open log files of any
+ * size near-instantly.
+ * <p>
+ * Lines are indexed lazily, i.e. only as far into the file as the lines being accessed. The index only keeps the offset
+ * and the style of every 64th line, so the heap usage stays small even for files with many millions of lines.
+ * <p>
+ * Use {@link AnsiEditorKit#readLines(AnsiMappedFile, StyledDocument, long, int)} to show a range of lines in a document,
+ * e.g. the lines currently being viewed:
+ * <pre>
+ *     try (var file = new AnsiMappedFile(path)) {
+ *         kit.readLines(file, doc, firstLine, 100);
+ *     }
+ * </pre>
+ * Note that an AnsiMappedFile is not thread-safe.
+ */
+public class AnsiMappedFile implements Closeable {
+
+    private static final long SEGMENT_SIZE = 1L << 30; // 1 GB
+    private static final int LINES_PER_SAMPLE = 64;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    private final MappedByteBuffer[] segments;
+
+    // The offset and style id of every LINES_PER_SAMPLE'th line, where the style id is as used by the AnsiTokenizer
+    private long[] sampleOffsets = new long[1024];
+    private int[] sampleStyles = new int[1024];
+    private int sampleCount;
+
+    private long indexedOffset; // the offset up to which the file has been indexed
+    private long indexedLineBreaks; // the number of line breaks before the indexed offset
+    private long indexedLineStart; // the offset of the line containing the indexed offset
+    private int indexedStyle; // the style at the indexed offset
+    private int scannedStyle; // the style at the offset returned by the last scan
+
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private final AnsiTokenizer.AsciiChars chunkChars = new AnsiTokenizer.AsciiChars();
+    private final AnsiTokenizer.TokenCursor tokens = new AnsiTokenizer.TokenCursor();
+
+    /**
+     * Opens and memory-maps a file with ANSI text. Nothing is read from the file, until lines are accessed.
+     *
+     * @param path is the path of the file.
+     */
+    public AnsiMappedFile(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            size = channel.size();
+            segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long position = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, size - position));
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        addSample(0, indexedStyle);
+    }
+
+    /**
+     * Returns the size of the file in bytes.
+     *
+     * @return the size of the file in bytes.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of lines in the file. Note that this method indexes the entire file the first time it is called.
+     *
+     * @return the number of lines in the file.
+     */
+    public long lineCount() {
+        index(Long.MAX_VALUE);
+        return indexedLineBreaks + (indexedLineStart < size ? 1 : 0);
+    }
+
+    /**
+     * Returns the byte offset of a line in the file.
+     * Only the part of the file up to the line is indexed, if it has not been indexed already.
+     *
+     * @param line is the line number starting from 0.
+     * @return the byte offset of the line, or the size of the file if the line is the line right after the last line.
+     * @throws IllegalArgumentException if the line does not exist.
+     */
+    public long lineStart(long line) {
+        if (line < 0)
+            throw new IllegalArgumentException("line cannot be negative. Was: " + line);
+        index(line);
+        if (line > indexedLineBreaks + (indexedLineStart < size ? 1 : 0))
+            throw new IllegalArgumentException("line does not exist. Was: " + line);
+        return locate(line);
+    }
+
+    /**
+     * Returns a new input stream reading the ANSI text of a range of lines from the file.
+     * The stream starts with an escape code that restores the style at the first line, which has been set by escape
+     * codes in the preceding lines.
+     *
+     * @param firstLine is the first line to read starting from 0.
+     * @param lineCount is the number of lines to read. Lines after the end of the file are ignored.
+     * @return a new input stream reading the ANSI text of the lines.
+     */
+    public InputStream newInputStream(long firstLine, int lineCount) {
+        if (firstLine < 0)
+            throw new IllegalArgumentException("firstLine cannot be negative. Was: " + firstLine);
+        if (lineCount < 0)
+            throw new IllegalArgumentException("lineCount cannot be negative. Was: " + lineCount);
+
+        long start = locate(firstLine);
+        int style = scannedStyle;
+        long end = locate(firstLine + lineCount);
+
+        return new SequenceInputStream(new ByteArrayInputStream(toEscCode(style)), new RegionInputStream(start, end));
+    }
+
+    /**
+     * Closes the file channel. The memory-mapped content is released, when it is no longer referenced.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the offset of a line, and keeps its style in {@code scannedStyle}. The offset is the size of the file for
+     * lines after the last line.
+     */
+    private long locate(long line) {
+        index(line);
+
+        int sample = (int) Math.min(line / LINES_PER_SAMPLE, sampleCount - 1);
+        long lineBreaks = line - (long) sample * LINES_PER_SAMPLE;
+        return scan(sampleOffsets[sample], lineBreaks, sampleStyles[sample], false);
+    }
+
+    /**
+     * Indexes the file until a number of line breaks has been found, or the end of the file has been reached.
+     */
+    private void index(long lineBreaks) {
+        if (lineBreaks > indexedLineBreaks && indexedOffset < size) {
+            indexedOffset = scan(indexedOffset, lineBreaks - indexedLineBreaks, indexedStyle, true);
+            indexedStyle = scannedStyle;
+        }
+    }
+
+    /**
+     * Scans the file from an offset until a number of line breaks has been passed, or the end of the file has been
+     * reached, while keeping track of the style set by escape codes. The style at the returned offset is kept in
+     * {@code scannedStyle}.
+     *
+     * @param indexing {@code true} if the scan continues the indexing of the file; {@code false} otherwise.
+     * @return the offset right after the last line break passed, or the size of the file.
+     */
+    private long scan(long offset, long lineBreaks, int style, boolean indexing) {
+        while (lineBreaks > 0 && offset < size) {
+            int length = read(offset, chunk, 0, CHUNK_SIZE);
+            var chunkText = chunkChars.wrap(chunk, length);
+            // An escape code at the end of the chunk might continue in the next chunk, so the cursor stops before it
+            tokens.reset(chunkText, 0, length, offset + length == size);
+            int scanned = -1;
+            while (scanned < 0 && tokens.next()) {
+                if (tokens.type() == AnsiTokenizer.SGR_CODE) {
+                    style = AnsiTokenizer.updateStyle(style, chunkText, tokens.start(), tokens.end());
+                } else if (tokens.type() == AnsiTokenizer.TEXT) {
+                    for (int i = tokens.start(); i < tokens.end(); i++) {
+                        if (chunk[i] != '\n')
+                            continue;
+                        if (indexing) {
+                            indexedLineStart = offset + i + 1;
+                            if (++indexedLineBreaks % LINES_PER_SAMPLE == 0)
+                                addSample(offset + i + 1, style);
+                        }
+                        if (--lineBreaks == 0) {
+                            scanned = i + 1;
+                            break;
+                        }
+                    }
+                }
+            }
+            offset += scanned >= 0 ? scanned : tokens.position();
+        }
+        scannedStyle = style;
+        return offset;
+    }
+
+    private void addSample(long offset, int style) {
+        if (sampleCount == sampleOffsets.length) {
+            sampleOffsets = Arrays.copyOf(sampleOffsets, sampleCount * 2);
+            sampleStyles = Arrays.copyOf(sampleStyles, sampleCount * 2);
+        }
+        sampleOffsets[sampleCount] = offset;
+        sampleStyles[sampleCount] = style;
+        sampleCount++;
+    }
+
+    /**
+     * Returns an escape code that sets a style starting from the default style, or no bytes for the default style.
+     */
+    private static byte[] toEscCode(int style) {
+        var escCode = new StringBuilder();
+        for (var code : AnsiTokenizer.escCodes(style)) {
+            escCode.append(escCode.length() == 0 ? "\u001b[" : ";").append(code.parameter);
+        }
+        if (escCode.length() > 0)
+            escCode.append('m');
+        return escCode.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Reads bytes from the memory-mapped segments.
+     *
+     * @return the number of bytes read, which is less than the length at the end of the file.
+     */
+    private int read(long offset, byte[] dst, int dstOffset, int length) {
+        length = (int) Math.min(length, size - offset);
+        int count = 0;
+        while (count < length) {
+            var segment = segments[(int) (offset / SEGMENT_SIZE)];
+            int position = (int) (offset % SEGMENT_SIZE);
+            int n = Math.min(length - count, segment.limit() - position);
+            segment.get(position, dst, dstOffset + count, n);
+            count += n;
+            offset += n;
+        }
+        return length;
+    }
+
+    /**
+     * Reads a region of the memory-mapped file.
+     */
+    private final class RegionInputStream extends InputStream {
+        private long position;
+        private final long end;
+
+        RegionInputStream(long start, long end) {
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() {
+            var b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= end)
+                return -1;
+            int count = AnsiMappedFile.this.read(position, b, off, (int) Math.min(len, end - position));
+            position += count;
+            return count;
+        }
+    }
+}
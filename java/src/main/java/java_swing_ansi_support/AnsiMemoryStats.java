@@ -0,0 +1,150 @@
+package java_swing_ansi_support;
+
+/**
+ * The memory used for storing the text of an {@link AnsiDocument}, e.g. for monitoring the cost of a long scrollback.
+ * See {@link AnsiDocument#getMemoryStats()}.
+ * <p>
+ * Besides the text, a document keeps elements on the heap, which hold the styles and the lines of the text, together
+ * with the positions of the elements and the line index. Their memory grows with the number of lines and style runs,
+ * also when the text is stored off-heap, compressed or spilled to disk, and is reported by {@link #getElementBytes()}.
+ */
+public final class AnsiMemoryStats {
+
+    private final int lineCount;
+    private final int textLength;
+    private final int chunkCount;
+    private final int latin1ChunkCount;
+    private final int compressedChunkCount;
+    private final int spilledChunkCount;
+    private final long textBytes;
+    private final long offHeapBytes;
+    private final long diskBytes;
+    private final int elementCount;
+    private final long elementBytes;
+
+    AnsiMemoryStats(int lineCount, int textLength, int chunkCount, int latin1ChunkCount, int compressedChunkCount,
+                    int spilledChunkCount, long textBytes, long offHeapBytes, long diskBytes, int elementCount,
+                    long elementBytes) {
+        this.lineCount = lineCount;
+        this.textLength = textLength;
+        this.chunkCount = chunkCount;
+        this.latin1ChunkCount = latin1ChunkCount;
+        this.compressedChunkCount = compressedChunkCount;
+        this.spilledChunkCount = spilledChunkCount;
+        this.textBytes = textBytes;
+        this.offHeapBytes = offHeapBytes;
+        this.diskBytes = diskBytes;
+        this.elementCount = elementCount;
+        this.elementBytes = elementBytes;
+    }
+
+    /**
+     * Returns the number of lines of the document.
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Returns the number of characters of the document.
+     */
+    public int getTextLength() {
+        return textLength;
+    }
+
+    /**
+     * Returns the number of chunks that the text is stored in.
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Returns the number of chunks with the text stored as Latin-1 bytes instead of UTF-16 chars.
+     */
+    public int getLatin1ChunkCount() {
+        return latin1ChunkCount;
+    }
+
+    /**
+     * Returns the number of chunks with the text stored compressed.
+     * See {@link AnsiDocument#setCompressedStorage(boolean)}.
+     */
+    public int getCompressedChunkCount() {
+        return compressedChunkCount;
+    }
+
+    /**
+     * Returns the number of chunks with the text spilled to disk.
+     * See {@link AnsiDocument#setMemoryBudget(long)}.
+     */
+    public int getSpilledChunkCount() {
+        return spilledChunkCount;
+    }
+
+    /**
+     * Returns the number of bytes allocated on the heap for storing the text, including room for appending text and
+     * the text of recently decompressed chunks.
+     */
+    public long getTextBytes() {
+        return textBytes;
+    }
+
+    /**
+     * Returns the number of bytes allocated off-heap for storing the text.
+     * See {@link AnsiDocument#setOffHeapStorage(boolean)}.
+     */
+    public long getOffHeapBytes() {
+        return offHeapBytes;
+    }
+
+    /**
+     * Returns the size of the file with the text spilled to disk.
+     * See {@link AnsiDocument#setMemoryBudget(long)}.
+     */
+    public long getDiskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * Returns the number of elements of the document, i.e. the lines and the runs of text with the same style.
+     */
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    /**
+     * Returns an estimate of the number of bytes used on the heap by the elements of the document, including their
+     * positions and the line index. The estimate assumes a 64-bit JVM with compressed references.
+     */
+    public long getElementBytes() {
+        return elementBytes;
+    }
+
+    /**
+     * Returns the number of bytes used on the heap for the document, which is the text on the heap and the elements.
+     */
+    public long getHeapBytes() {
+        return textBytes + elementBytes;
+    }
+
+    /**
+     * Returns the average number of bytes of memory used per line, which counts the text on the heap and off-heap,
+     * and the elements, but not the text spilled to disk.
+     */
+    public double getBytesPerLine() {
+        return (double) (textBytes + offHeapBytes + elementBytes) / lineCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format("%d lines, %d chars in %d chunks (%d Latin-1, %d compressed, %d spilled), %d text bytes on"
+                        + " heap, %d elements taking ~%d bytes on heap, %d bytes off-heap (%.1f bytes per line),"
+                        + " %d bytes on disk",
+                lineCount, textLength, chunkCount, latin1ChunkCount, compressedChunkCount, spilledChunkCount, textBytes,
+                elementCount, elementBytes, offHeapBytes, getBytesPerLine(), diskBytes);
+    }
+}
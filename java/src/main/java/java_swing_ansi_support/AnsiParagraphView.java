@@ -0,0 +1,205 @@
+package java_swing_ansi_support;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.ParagraphView;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.image.BufferedImage;
+
+/**
+ * The paragraph view of the {@link AnsiEditorKit}, which shows a line of an {@link AnsiDocument}.
+ * The line is hidden, i.e. it has no height and is not painted, when it does not match the {@link AnsiLineFilter} of the
+ * {@link AnsiEditorPane} it is shown in.
+ * <p>
+ * When the pane has a line image cache, the line is rendered into an image once, and the image is drawn when the line
+ * is painted again, e.g. while scrolling. Lines with highlights like a selection are always painted directly.
+ * <p>
+ * The backgrounds of the text runs are painted by the paragraph view row by row before the text, where adjacent runs
+ * with the same background color are filled with a single rectangle. Backgrounds with the same color as the background
+ * of an opaque pane are not painted at all, as the pane has already painted them.
+ */
+class AnsiParagraphView extends ParagraphView {
+
+    private int editCount; // changed on every edit of the line, which makes the cached image of the line obsolete
+
+    AnsiParagraphView(Element elem) {
+        super(elem);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        editCount++;
+        super.insertUpdate(e, a, f);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        editCount++;
+        super.removeUpdate(e, a, f);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        editCount++;
+        super.changedUpdate(e, a, f);
+    }
+
+    /**
+     * {@inheritDoc}
+     * When the view is removed, e.g. because its line has been trimmed, its cached line image is dropped.
+     */
+    @Override
+    public void setParent(View parent) {
+        if (parent == null && getContainer() instanceof AnsiEditorPane) {
+            var cache = ((AnsiEditorPane) getContainer()).getLineImageCache();
+            if (cache != null)
+                cache.remove(this);
+        }
+        super.setParent(parent);
+    }
+
+    @Override
+    public float getPreferredSpan(int axis) {
+        return axis == Y_AXIS && isHidden() ? 0 : super.getPreferredSpan(axis);
+    }
+
+    @Override
+    public float getMinimumSpan(int axis) {
+        return axis == Y_AXIS && isHidden() ? 0 : super.getMinimumSpan(axis);
+    }
+
+    @Override
+    public float getMaximumSpan(int axis) {
+        return axis == Y_AXIS && isHidden() ? 0 : super.getMaximumSpan(axis);
+    }
+
+    @Override
+    public void paint(Graphics g, Shape allocation) {
+        if (isHidden())
+            return;
+
+        var cache = getContainer() instanceof AnsiEditorPane ? ((AnsiEditorPane) getContainer()).getLineImageCache() : null;
+        if (cache == null || !(g instanceof Graphics2D) || !getContainer().isOpaque() || isHighlighted()) {
+            paintLine(g, allocation);
+            return;
+        }
+
+        var g2 = (Graphics2D) g;
+        Rectangle bounds = allocation.getBounds();
+        // Render the image in device pixels on HiDPI screens
+        var transform = g2.getTransform();
+        int width = (int) Math.ceil(bounds.width * transform.getScaleX());
+        int height = (int) Math.ceil(bounds.height * transform.getScaleY());
+        if (width <= 0 || height <= 0)
+            return;
+
+        var image = cache.get(this, editCount, width, height);
+        if (image == null) {
+            image = render(g2, bounds, width, height);
+            cache.put(this, editCount, image);
+        }
+        g2.drawImage(image, bounds.x, bounds.y, bounds.width, bounds.height, null);
+    }
+
+    /**
+     * Renders the line into an image on the background of the pane.
+     */
+    private BufferedImage render(Graphics2D g, Rectangle bounds, int width, int height) {
+        var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        var imageGraphics = image.createGraphics();
+        try {
+            imageGraphics.setColor(getContainer().getBackground());
+            imageGraphics.fillRect(0, 0, width, height);
+            imageGraphics.setRenderingHints(g.getRenderingHints());
+            imageGraphics.setFont(g.getFont());
+            imageGraphics.scale((double) width / bounds.width, (double) height / bounds.height);
+            imageGraphics.setClip(0, 0, bounds.width, bounds.height);
+            paintLine(imageGraphics, new Rectangle(0, 0, bounds.width, bounds.height));
+        } finally {
+            imageGraphics.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Paints the backgrounds of the text runs, and then the text runs.
+     */
+    private void paintLine(Graphics g, Shape allocation) {
+        Rectangle clip = g.getClipBounds();
+        for (int i = 0; i < getViewCount(); i++) {
+            Shape rowAllocation = getChildAllocation(i, allocation);
+            if (rowAllocation != null && (clip == null || rowAllocation.intersects(clip)))
+                paintBackgrounds(g, getView(i), rowAllocation);
+        }
+        super.paint(g, allocation);
+    }
+
+    /**
+     * Paints the backgrounds of the text runs in a row, merging adjacent runs with the same background color.
+     */
+    private void paintBackgrounds(Graphics g, View row, Shape rowAllocation) {
+        Color paneBackground = getContainer().isOpaque() ? getContainer().getBackground() : null;
+        Color fillColor = null;
+        Rectangle fill = null;
+        for (int i = 0; i < row.getViewCount(); i++) {
+            View run = row.getView(i);
+            Color background = run instanceof AnsiLabelView ? ((AnsiLabelView) run).getRunBackground() : null;
+            if (background != null && background.equals(paneBackground))
+                background = null;
+            Shape runAllocation = background != null ? row.getChildAllocation(i, rowAllocation) : null;
+            if (runAllocation == null)
+                continue;
+            Rectangle bounds = runAllocation.getBounds();
+            if (fill != null && background.equals(fillColor) && bounds.x == fill.x + fill.width
+                    && bounds.y == fill.y && bounds.height == fill.height) {
+                fill.width += bounds.width;
+            } else {
+                if (fill != null) {
+                    g.setColor(fillColor);
+                    g.fillRect(fill.x, fill.y, fill.width, fill.height);
+                }
+                fillColor = background;
+                fill = bounds;
+            }
+        }
+        if (fill != null) {
+            g.setColor(fillColor);
+            g.fillRect(fill.x, fill.y, fill.width, fill.height);
+        }
+    }
+
+    /**
+     * Checks if the line overlaps a highlight, e.g. the selection, which must be painted along with the line.
+     */
+    private boolean isHighlighted() {
+        var highlighter = ((JTextComponent) getContainer()).getHighlighter();
+        if (highlighter == null)
+            return false;
+        int start = getStartOffset();
+        int end = getEndOffset();
+        for (var highlight : highlighter.getHighlights()) {
+            if (highlight.getStartOffset() < end && highlight.getEndOffset() >= start)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the line is hidden by the line filter of the pane.
+     */
+    boolean isHidden() {
+        if (!(getContainer() instanceof AnsiEditorPane))
+            return false;
+        var filter = ((AnsiEditorPane) getContainer()).getLineFilter();
+        if (filter == null || filter.getDocument() != getDocument())
+            return false;
+        return !filter.isVisible(filter.getDocument().lineOfOffset(getStartOffset()));
+    }
+}
@@ -0,0 +1,86 @@
+package java_swing_ansi_support;
+
+/**
+ * Finds the next control character of ANSI text, which is an ESC starting an escape code or a carriage return.
+ * <p>
+ * Most of a typical log is plain text between the escape codes, so this is the hot loop when parsing ANSI text. When
+ * the JVM is started with {@code --add-modules jdk.incubator.vector}, a scanner using the Vector API is used, which
+ * compares many characters at a time. Otherwise, the characters are compared one at a time.
+ */
+abstract class AnsiScanner {
+
+    static final byte ESC = 0x1b;
+    static final byte CR = '\r';
+
+    private static final String VECTOR_SCANNER_CLASS = "java_swing_ansi_support.VectorAnsiScanner";
+
+    private static final AnsiScanner INSTANCE = create();
+
+    /**
+     * Returns the scanner to use, which is the vector scanner if the Vector API is available.
+     */
+    static AnsiScanner get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the index of the first ESC or carriage return in a range of bytes.
+     *
+     * @return the index of the first control character, or the end index if there is none.
+     */
+    abstract int indexOfControl(byte[] array, int from, int to);
+
+    /**
+     * Returns the index of the first ESC or carriage return in a range of characters.
+     *
+     * @return the index of the first control character, or the end index if there is none.
+     */
+    abstract int indexOfControl(char[] array, int from, int to);
+
+    /**
+     * Returns the name of the scanner, e.g. for benchmarks.
+     */
+    abstract String name();
+
+    private static AnsiScanner create() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (AnsiScanner) Class.forName(VECTOR_SCANNER_CLASS).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // The vector scanner is not on the class path, so fall back to the scalar scanner
+            }
+        }
+        return new Scalar();
+    }
+
+    /**
+     * The scanner comparing one character at a time.
+     */
+    static final class Scalar extends AnsiScanner {
+
+        @Override
+        int indexOfControl(byte[] array, int from, int to) {
+            for (int i = from; i < to; i++) {
+                byte b = array[i];
+                if (b == ESC || b == CR)
+                    return i;
+            }
+            return to;
+        }
+
+        @Override
+        int indexOfControl(char[] array, int from, int to) {
+            for (int i = from; i < to; i++) {
+                char ch = array[i];
+                if (ch == ESC || ch == CR)
+                    return i;
+            }
+            return to;
+        }
+
+        @Override
+        String name() {
+            return "scalar";
+        }
+    }
+}
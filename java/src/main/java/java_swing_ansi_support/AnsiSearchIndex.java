@@ -0,0 +1,554 @@
+package java_swing_ansi_support;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The AnsiSearchIndex searches the text of an {@link AnsiDocument} on a background thread, and streams the matches
+ * back to the event dispatch thread, e.g. for highlighting them. This way the user interface stays responsive while
+ * searching large logs, and the first matches are shown right away.
+ * <p>
+ * The index splits the document into chunks of text, and keeps a filter of the trigrams (three successive characters)
+ * in each chunk. A search only scans the chunks that contain all the trigrams of the search text. The index is kept
+ * up to date, while text is inserted into and removed from the document. Appended text is indexed right away, while
+ * chunks changed by other edits are indexed again by the next search.
+ * <p>
+ * A search reads the text from a {@link AnsiDocument#snapshot() snapshot} of the document, so it does not hold the lock
+ * of the document while scanning, and text can be appended while searching. The text appended after the search has
+ * started is not searched. When the text of the snapshot is modified, e.g. when a carriage return overwrites the last
+ * line, the snapshot is no longer valid, and the search takes a new snapshot and resumes at the same offset. Matches in
+ * the modified text found before that may be outdated. A chunk that keeps being modified while it is read, is read
+ * while holding the read lock of the document. The offsets of the matches are adjusted for lines trimmed from the start
+ * of the document, when the document is modified on the event dispatch thread.
+ * <pre>
+ *     var index = new AnsiSearchIndex(doc);
+ *     index.search("ERROR", true, 0, (matchStarts, matchLength) -&gt; highlight(matchStarts, matchLength));
+ * </pre>
+ */
+public class AnsiSearchIndex implements Closeable {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int FILTER_BITS = 32 * 1024; // per chunk, so a chunk of logs typically sets less than 30% of them
+    private static final int MAX_RETRIES = 3; // the number of new snapshots taken for a chunk, before locking the document
+
+    /**
+     * A listener for the matches found by a search. The listener is called on the event dispatch thread.
+     */
+    public interface SearchListener {
+        /**
+         * Called with the matches found in the next part of the document.
+         *
+         * @param matchStarts is the start offset of each match in ascending order.
+         * @param matchLength is the length of each match, which is the length of the search text.
+         */
+        void matchesFound(int[] matchStarts, int matchLength);
+
+        /**
+         * Called when the entire document has been searched.
+         */
+        default void searchCompleted() {
+        }
+    }
+
+    private final AnsiDocument doc;
+    private final DocumentListener documentListener = new DocumentListener() {
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            textInserted(e.getOffset(), e.getLength());
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            textRemoved(e.getOffset(), e.getLength());
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+    };
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "AnsiSearchIndex");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The chunks are accessed while synchronized on the chunks. They are changed by the document listener while holding
+    // the write lock of the document, and the filters of changed chunks are built again by the search thread.
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final Segment segment = new Segment(); // only used by the document listener
+    private long removedChars; // the number of characters removed from the start of the document
+    private int modCount; // changed whenever the text of an existing chunk is changed
+
+    private Future<?> currentSearch;
+
+    /**
+     * Creates a search index for a document. The text already in the document is indexed by the first search.
+     *
+     * @param doc is the document to search.
+     */
+    public AnsiSearchIndex(AnsiDocument doc) {
+        this.doc = doc;
+        doc.render(() -> {
+            chunks.add(new Chunk(0));
+            for (int start = CHUNK_SIZE; start < doc.getLength(); start += CHUNK_SIZE) {
+                chunks.add(new Chunk(start));
+            }
+            doc.addDocumentListener(documentListener);
+        });
+    }
+
+    /**
+     * Starts searching the document for a text on a background thread. A search in progress is cancelled.
+     * The document is searched from an offset to the end of the document, and then from the start of the document to
+     * the offset, so the matches are found in the order of a "find next" from the offset.
+     *
+     * @param text       is the text to search for.
+     * @param ignoreCase {@code true} if upper and lower case characters are considered equal; {@code false} otherwise.
+     * @param fromOffset is the offset to start the search from, e.g. the caret position.
+     * @param listener   is the listener that receives the matches on the event dispatch thread.
+     * @return a future that can be used for cancelling the search.
+     */
+    public synchronized Future<?> search(String text, boolean ignoreCase, int fromOffset, SearchListener listener) {
+        if (text.isEmpty())
+            throw new IllegalArgumentException("text cannot be empty");
+
+        if (currentSearch != null)
+            currentSearch.cancel(false);
+        var search = new Search(text.toCharArray(), ignoreCase, fromOffset, listener);
+        currentSearch = search.task;
+        executor.execute(search.task);
+        return currentSearch;
+    }
+
+    /**
+     * Stops the background thread and stops updating the index.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        doc.removeDocumentListener(documentListener);
+    }
+
+    private static boolean matches(char[] array, int offset, char[] text, boolean ignoreCase) {
+        for (int i = 0; i < text.length; i++) {
+            char ch = array[offset + i];
+            if (ch != text[i] && (!ignoreCase || fold(ch) != fold(text[i])))
+                return false;
+        }
+        return true;
+    }
+
+    private void textInserted(int offset, int length) {
+        synchronized (chunks) {
+            insertChunks(offset, length);
+        }
+    }
+
+    private void insertChunks(int offset, int length) {
+        if (offset + length == doc.getLength()) {
+            // Appended text: add chunks for the new text, and add the trigrams ending within the new text
+            int lastStart = chunks.get(chunks.size() - 1).start;
+            for (int start = Math.max(lastStart + CHUNK_SIZE, offset); start < doc.getLength(); start += CHUNK_SIZE) {
+                var chunk = new Chunk(start);
+                chunk.filter = new long[FILTER_BITS / 64];
+                chunks.add(chunk);
+            }
+            addTrigrams(Math.max(offset - 2, 0), doc.getLength());
+        } else {
+            // The chunk at the offset gets the inserted text, which changes the trigrams across the ends of the text
+            int chunk = chunkIndex(offset);
+            for (int i = chunk + 1; i < chunks.size(); i++) {
+                chunks.get(i).start += length;
+            }
+            invalidate(chunk);
+        }
+    }
+
+    private void textRemoved(int offset, int length) {
+        synchronized (chunks) {
+            removeChunks(offset, length);
+        }
+    }
+
+    private void removeChunks(int offset, int length) {
+        // Remove the chunks that start within the removed text, except a chunk starting at the offset
+        int first = chunkIndex(offset) + 1;
+        int last = first;
+        while (last < chunks.size() && chunks.get(last).start <= offset + length) {
+            last++;
+        }
+        if (offset == 0 && last > first) {
+            first--; // the chunk starting at 0 is removed, while the last removed chunk is kept starting at 0
+            last--;
+            chunks.get(last).start = 0;
+        }
+        chunks.subList(first, last).clear();
+        for (int i = first; i < chunks.size(); i++) {
+            if (chunks.get(i).start > 0)
+                chunks.get(i).start -= length;
+        }
+        // When removing the start of the document, the filter still contains all the trigrams of the remaining text
+        if (offset > 0)
+            invalidate(chunkIndex(offset));
+        else
+            removedChars += length;
+        modCount++;
+    }
+
+    /**
+     * Marks a chunk and the chunk before it as changed, as the trigrams of the chunk before it can end in the chunk.
+     */
+    private void invalidate(int chunk) {
+        modCount++;
+        chunks.get(chunk).filter = null;
+        if (chunk > 0)
+            chunks.get(chunk - 1).filter = null;
+    }
+
+    /**
+     * Adds the trigrams of a text range of the document to the filters of the chunks where the trigrams start.
+     */
+    private void addTrigrams(int start, int end) {
+        if (end - start < 3)
+            return;
+        int chunk = chunkIndex(start);
+        int chunkEnd = chunkEnd(chunk);
+        long[] filter = chunks.get(chunk).filter;
+
+        int position = start;
+        char c0 = 0;
+        char c1 = 0;
+        segment.setPartialReturn(true);
+        while (position < end) {
+            getText(position, end - position);
+            for (int i = 0; i < segment.count; i++) {
+                char c2 = segment.array[segment.offset + i];
+                int trigramStart = position + i - 2;
+                if (trigramStart >= start) {
+                    while (trigramStart >= chunkEnd) {
+                        chunkEnd = chunkEnd(++chunk);
+                        filter = chunks.get(chunk).filter;
+                    }
+                    if (filter != null) // otherwise the chunk is indexed again later
+                        setBit(filter, trigramBit(c0, c1, c2));
+                }
+                c0 = c1;
+                c1 = c2;
+            }
+            position += segment.count;
+        }
+    }
+
+    private void getText(int offset, int length) {
+        try {
+            doc.getText(offset, length, segment);
+        } catch (BadLocationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int chunkIndex(int offset) {
+        int low = 0;
+        int high = chunks.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (chunks.get(mid).start <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private int chunkEnd(int chunk) {
+        return chunk + 1 < chunks.size() ? chunks.get(chunk + 1).start : doc.getLength();
+    }
+
+    private static char fold(char ch) {
+        if (ch < 128)
+            return ch >= 'A' && ch <= 'Z' ? (char) (ch + 32) : ch;
+        return Character.toLowerCase(Character.toUpperCase(ch));
+    }
+
+    /**
+     * Returns the filter bit of a trigram. Upper and lower case characters give the same bit, so the filter can be used
+     * for searches ignoring the case too.
+     */
+    private static int trigramBit(char c0, char c1, char c2) {
+        int hash = ((fold(c0) * 31) + fold(c1)) * 31 + fold(c2);
+        return (hash * 0x9e3779b9) >>> (32 - 15); // FILTER_BITS is 2^15
+    }
+
+    private static void setBit(long[] filter, int bit) {
+        filter[bit >>> 6] |= 1L << bit;
+    }
+
+    /**
+     * Adds the trigrams starting in a range of characters to a filter.
+     */
+    private static void addTrigrams(long[] filter, char[] array, int start, int end) {
+        for (int i = start; i + 2 < end; i++) {
+            setBit(filter, trigramBit(array[i], array[i + 1], array[i + 2]));
+        }
+    }
+
+    /**
+     * A search running on the background thread, which searches a snapshot of the document chunk by chunk.
+     * <p>
+     * The positions of the search are indexes of the snapshot. The offsets of the chunks are offsets of the document,
+     * which are the indexes of the snapshot minus the characters removed from the start of the document since the
+     * snapshot was taken.
+     */
+    private final class Search implements Runnable {
+        private final char[] text;
+        private final boolean ignoreCase;
+        private final int fromOffset;
+        private final SearchListener listener;
+        private final FutureTask<Void> task = new FutureTask<>(this, null);
+
+        private long[] textFilter;
+        private AnsiTextSnapshot snapshot;
+        private long snapshotRemovedChars; // the removed characters when the snapshot was taken
+        private char[] buffer = new char[CHUNK_SIZE];
+
+        // The search goes from the offset to the end of the snapshot, and then wraps around from the start of the
+        // snapshot to the offset, where the first chunk is only searched from the offset
+        private int from;
+        private int position;
+        private int end;
+        private boolean wrapped;
+
+        Search(char[] text, boolean ignoreCase, int fromOffset, SearchListener listener) {
+            this.text = text;
+            this.ignoreCase = ignoreCase;
+            this.fromOffset = fromOffset;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            if (text.length >= 3 && text.length <= CHUNK_SIZE) {
+                textFilter = new long[FILTER_BITS / 64];
+                addTrigrams(textFilter, text, 0, text.length);
+            }
+
+            doc.render(this::start);
+            int retries = 0;
+            while (!task.isCancelled()) {
+                if (position >= end) {
+                    if (wrapped)
+                        break;
+                    wrapped = true;
+                    position = 0;
+                    end = from;
+                    continue;
+                }
+                try {
+                    if (retries < MAX_RETRIES) {
+                        position = searchChunk(position, end);
+                    } else {
+                        // The chunk keeps being modified, so it is searched while the document cannot be modified
+                        doc.render(() -> {
+                            resumeInNewSnapshot();
+                            position = searchChunk(position, end);
+                        });
+                    }
+                    retries = 0;
+                } catch (ConcurrentModificationException e) {
+                    // The searched text has been modified, e.g. by a carriage return overwriting the last line
+                    doc.render(this::resumeInNewSnapshot);
+                    retries++;
+                }
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (!task.isCancelled())
+                    listener.searchCompleted();
+            });
+        }
+
+        /**
+         * Takes the first snapshot, and starts the search at the offset. This must be called while holding the read lock
+         * of the document, like all methods taking a snapshot, so the removed characters match the snapshot.
+         */
+        private void start() {
+            takeSnapshot();
+            from = Math.min(Math.max(fromOffset, 0), snapshot.length());
+            position = from;
+            end = snapshot.length();
+        }
+
+        private void takeSnapshot() {
+            synchronized (chunks) {
+                snapshot = doc.snapshot();
+                snapshotRemovedChars = removedChars;
+            }
+        }
+
+        /**
+         * Takes a new snapshot, and converts the positions of the search to the new snapshot, so the search resumes at
+         * the same offset of the document.
+         */
+        private void resumeInNewSnapshot() {
+            int shift = shift();
+            position = Math.max(position - shift, 0);
+            from = Math.max(from - shift, 0);
+            takeSnapshot();
+            end = wrapped ? from : snapshot.length();
+        }
+
+        /**
+         * Returns the number of characters removed from the start of the document since the snapshot was taken.
+         */
+        private int shift() {
+            synchronized (chunks) {
+                return (int) (removedChars - snapshotRemovedChars);
+            }
+        }
+
+        /**
+         * Searches the matches starting from a position to the end of its chunk, where trimmed text is skipped.
+         *
+         * @return the position after the chunk.
+         * @throws ConcurrentModificationException if the text of the snapshot has been modified.
+         */
+        private int searchChunk(int position, int end) {
+            int shift;
+            int chunkEnd;
+            var filtered = new ArrayList<Chunk>(); // the chunks where the trigrams of matches in the chunk start
+            var filters = new ArrayList<long[]>(); // a copy of the filter of each chunk, or null if it must be built
+            var filterStarts = new ArrayList<Integer>();
+            var filterEnds = new ArrayList<Integer>();
+            int filterModCount;
+            synchronized (chunks) {
+                shift = (int) (removedChars - snapshotRemovedChars);
+                position = Math.max(position, shift);
+                if (position >= end)
+                    return end;
+                int chunk = chunkIndex(position - shift);
+                chunkEnd = Math.min(chunkEnd(chunk, shift), end);
+                for (int next = chunk; next < chunks.size(); next++) {
+                    int nextStart = chunks.get(next).start + shift;
+                    if (next > chunk && nextStart >= chunkEnd + text.length - 2 || nextStart >= snapshot.length())
+                        break;
+                    var filter = chunks.get(next).filter;
+                    filtered.add(chunks.get(next));
+                    filters.add(filter != null ? filter.clone() : null);
+                    filterStarts.add(nextStart);
+                    filterEnds.add(chunkEnd(next, shift));
+                }
+                filterModCount = modCount;
+            }
+
+            if (textFilter != null) {
+                var bits = new long[FILTER_BITS / 64];
+                for (int i = 0; i < filtered.size(); i++) {
+                    var filter = filters.get(i);
+                    if (filter == null)
+                        filter = buildFilter(filtered.get(i), filterStarts.get(i), filterEnds.get(i), filterModCount);
+                    for (int j = 0; j < bits.length; j++) {
+                        bits[j] |= filter[j];
+                    }
+                }
+                for (int i = 0; i < textFilter.length; i++) {
+                    if ((textFilter[i] & ~bits[i]) != 0)
+                        return chunkEnd;
+                }
+            }
+
+            int length = Math.min(chunkEnd + text.length - 1, snapshot.length()) - position;
+            read(position, length);
+            var matchStarts = new int[16];
+            int matchCount = 0;
+            for (int i = 0; i < chunkEnd - position && i + text.length <= length; i++) {
+                if (matches(buffer, i, text, ignoreCase)) {
+                    if (matchCount == matchStarts.length)
+                        matchStarts = Arrays.copyOf(matchStarts, matchCount * 2);
+                    matchStarts[matchCount++] = position + i - shift;
+                }
+            }
+            if (matchCount > 0) {
+                var found = Arrays.copyOf(matchStarts, matchCount);
+                long removed = snapshotRemovedChars + shift;
+                SwingUtilities.invokeLater(() -> {
+                    if (!task.isCancelled())
+                        matchesFound(found, removed);
+                });
+            }
+            return chunkEnd;
+        }
+
+        /**
+         * Passes matches to the listener, where the offsets are moved by the characters removed from the start of the
+         * document since the matches were found, and the matches in removed text are left out.
+         */
+        private void matchesFound(int[] matchStarts, long removed) {
+            int trimmed;
+            synchronized (chunks) {
+                trimmed = (int) (removedChars - removed);
+            }
+            int count = 0;
+            for (int matchStart : matchStarts) {
+                if (matchStart >= trimmed)
+                    matchStarts[count++] = matchStart - trimmed;
+            }
+            if (count > 0)
+                listener.matchesFound(count < matchStarts.length ? Arrays.copyOf(matchStarts, count) : matchStarts,
+                        text.length);
+        }
+
+        /**
+         * Returns the end of a chunk as a position of the snapshot. This must be called while synchronized on the
+         * chunks.
+         */
+        private int chunkEnd(int chunk, int shift) {
+            return chunk + 1 < chunks.size() ? chunks.get(chunk + 1).start + shift : snapshot.length();
+        }
+
+        /**
+         * Builds the trigram filter of a changed chunk from the snapshot. The filter is kept by the chunk, unless the
+         * chunk has been changed since, or the chunk continues after the snapshot.
+         */
+        private long[] buildFilter(Chunk chunk, int start, int end, int filterModCount) {
+            var filter = new long[FILTER_BITS / 64];
+            int length = Math.min(end + 2, snapshot.length()) - start;
+            read(start, length);
+            addTrigrams(filter, buffer, 0, length);
+            synchronized (chunks) {
+                if (modCount == filterModCount && chunk.filter == null && end + 2 <= snapshot.length())
+                    chunk.filter = filter;
+            }
+            return filter;
+        }
+
+        /**
+         * Reads text from the snapshot into the buffer.
+         */
+        private void read(int start, int length) {
+            if (buffer.length < length)
+                buffer = new char[length];
+            snapshot.getChars(start, start + length, buffer, 0);
+        }
+    }
+
+    private static final class Chunk {
+        int start;
+        long[] filter; // null if the chunk has been changed, and must be indexed again
+
+        Chunk(int start) {
+            this.start = start;
+        }
+    }
+}
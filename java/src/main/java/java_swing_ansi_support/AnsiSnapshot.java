@@ -0,0 +1,403 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.Segment;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+import java.awt.Color;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The AnsiSnapshot saves the styled text of a document in a compact binary file, so the document can be opened again
+ * without reading and parsing the ANSI text once more, e.g. when reopening a large build log.
+ * <p>
+ * The snapshot contains the text encoded as UTF-8, the runs of text with the same style, and a palette of the distinct
+ * styles used by the runs. The runs refer to the styles by their index in the palette. A snapshot is read through
+ * memory-mapping, and the text is inserted as one bulk insert into an {@link AnsiDocument}.
+ * <p>
+ * A snapshot can be bound to the source file it was created from, e.g. the log file. Reading the snapshot is rejected,
+ * when the source file has been changed since, or when the snapshot has another format version or is corrupt:
+ * <pre>
+ *     if (!AnsiSnapshot.read(snapshotPath, logPath, doc, 0)) {
+ *         kit.read(Files.newInputStream(logPath), doc, 0);
+ *         AnsiSnapshot.write(doc, snapshotPath, logPath);
+ *     }
+ * </pre>
+ * Only the character attributes set by ANSI escape codes are saved, i.e. the font family and size, bold, italic,
+ * underline, strikethrough, and the foreground and background colors.
+ */
+public final class AnsiSnapshot {
+
+    private static final long MAGIC = 0x414e5349534e4150L; // "ANSISNAP"
+    private static final int VERSION = 1;
+    // The header has the magic number, version, source file size and modification time, text length, palette size,
+    // run count, 4 reserved bytes, payload length, and the checksum
+    private static final int HEADER_SIZE = 56;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // The keys of the saved attributes
+    private static final int FONT_FAMILY = 0;
+    private static final int FONT_SIZE = 1;
+    private static final int BOLD = 2;
+    private static final int ITALIC = 3;
+    private static final int UNDERLINE = 4;
+    private static final int STRIKE_THROUGH = 5;
+    private static final int FOREGROUND = 6;
+    private static final int BACKGROUND = 7;
+
+    private static final Object[] ATTRIBUTE_KEYS = {
+            StyleConstants.FontFamily, StyleConstants.FontSize, StyleConstants.Bold, StyleConstants.Italic,
+            StyleConstants.Underline, StyleConstants.StrikeThrough, StyleConstants.Foreground, StyleConstants.Background
+    };
+
+    private AnsiSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of a document to a file, which is replaced if it exists.
+     *
+     * @param doc      is the document to write.
+     * @param snapshot is the path of the snapshot file.
+     * @param source   is the path of the file the document was read from, or {@code null} if the snapshot is not bound
+     *                 to a source file.
+     */
+    public static void write(StyledDocument doc, Path snapshot, Path source) throws IOException {
+        long sourceSize = source != null ? Files.size(source) : -1;
+        long sourceModified = source != null ? Files.getLastModifiedTime(source).toMillis() : -1;
+
+        try (var channel = FileChannel.open(snapshot, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            var output = new Output(channel);
+            var header = ByteBuffer.allocate(HEADER_SIZE);
+            try {
+                doc.render(() -> {
+                    try {
+                        writePayload(doc, output, header);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            // The header is written last, so an incomplete snapshot is rejected. The checksum covers the header too.
+            header.putLong(0, MAGIC)
+                    .putInt(8, VERSION)
+                    .putLong(12, sourceSize)
+                    .putLong(20, sourceModified)
+                    .putLong(44, output.length);
+            output.crc.update(header.array(), 0, 52);
+            header.putInt(52, (int) output.crc.getValue());
+            channel.write(header, 0);
+        }
+    }
+
+    /**
+     * Reads a snapshot from a file, and inserts the styled text into a document.
+     *
+     * @param snapshot is the path of the snapshot file.
+     * @param source   is the path of the file the snapshot was created from, or {@code null} if the snapshot is not
+     *                 bound to a source file.
+     * @param doc      is the document the text is inserted into.
+     * @param offset   is the offset into the document where the text will be inserted.
+     * @return {@code true} if the text has been inserted; {@code false} if the snapshot does not exist, has another
+     * format version, is corrupt, or the source file has been changed since the snapshot was written. In that case the
+     * document is left unchanged.
+     */
+    public static boolean read(Path snapshot, Path source, StyledDocument doc, int offset) throws IOException, BadLocationException {
+        if (!Files.isRegularFile(snapshot))
+            return false;
+
+        ByteBuffer buffer;
+        try (var channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE)
+                return false;
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        // Check the header
+        long sourceSize = source != null ? Files.size(source) : -1;
+        long sourceModified = source != null ? Files.getLastModifiedTime(source).toMillis() : -1;
+        if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION
+                || buffer.getLong(12) != sourceSize || buffer.getLong(20) != sourceModified
+                || buffer.getLong(44) != buffer.capacity() - HEADER_SIZE)
+            return false;
+        int textLength = buffer.getInt(28);
+        int paletteSize = buffer.getInt(32);
+        int runCount = buffer.getInt(36);
+
+        var crc = new CRC32();
+        crc.update(buffer.duplicate().position(HEADER_SIZE));
+        crc.update(buffer.duplicate().limit(52));
+        if ((int) crc.getValue() != buffer.getInt(52))
+            return false;
+
+        // Read the palette, the runs, and the text
+        char[] text = new char[textLength];
+        int[] runEnds = new int[runCount];
+        var runAttributes = new AttributeSet[runCount];
+        try {
+            buffer.position(HEADER_SIZE);
+            var palette = new AttributeSet[paletteSize];
+            for (int i = 0; i < paletteSize; i++) {
+                palette[i] = readAttributes(buffer);
+            }
+            int runEnd = 0;
+            for (int i = 0; i < runCount; i++) {
+                runEnd += readVarInt(buffer);
+                runEnds[i] = runEnd;
+                runAttributes[i] = palette[readVarInt(buffer)];
+            }
+            var decoded = CharBuffer.wrap(text);
+            StandardCharsets.UTF_8.newDecoder().decode(buffer, decoded, true);
+            if (runEnd != textLength || decoded.hasRemaining())
+                return false;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            return false;
+        }
+
+        insertRuns(doc, offset, text, runEnds, runAttributes, runCount);
+        return true;
+    }
+
+    private static void writePayload(StyledDocument doc, Output output, ByteBuffer header) throws IOException {
+        // Find the runs, and the distinct styles of the runs
+        Map<List<Object>, Integer> paletteIndexes = new HashMap<>();
+        List<AttributeSet> palette = new ArrayList<>();
+        int[] runs = new int[256]; // the length and the palette index of each run
+        int runCount = 0;
+        int length = doc.getLength();
+        int offset = 0;
+        while (offset < length) {
+            Element run = doc.getCharacterElement(offset);
+            AttributeSet attributes = run.getAttributes();
+            int paletteIndex = paletteIndexes.computeIfAbsent(savedAttributes(attributes), key -> {
+                palette.add(attributes);
+                return palette.size() - 1;
+            });
+            int runEnd = Math.min(run.getEndOffset(), length);
+            if (runCount > 0 && runs[runCount * 2 - 1] == paletteIndex) {
+                runs[runCount * 2 - 2] += runEnd - offset; // join the previous run with the same style
+            } else {
+                if (runCount * 2 == runs.length)
+                    runs = Arrays.copyOf(runs, runs.length * 2);
+                runs[runCount * 2] = runEnd - offset;
+                runs[runCount * 2 + 1] = paletteIndex;
+                runCount++;
+            }
+            offset = runEnd;
+        }
+        header.putInt(28, length).putInt(32, palette.size()).putInt(36, runCount);
+
+        for (var attributes : palette) {
+            writeAttributes(output, attributes);
+        }
+        for (int i = 0; i < runCount * 2; i++) {
+            output.writeVarInt(runs[i]);
+        }
+        writeText(doc, output, length);
+        output.flush();
+    }
+
+    /**
+     * Returns the values of the saved attributes, which identify a style in the palette.
+     */
+    private static List<Object> savedAttributes(AttributeSet attributes) {
+        var values = new ArrayList<>(ATTRIBUTE_KEYS.length);
+        for (var key : ATTRIBUTE_KEYS) {
+            values.add(attributes.isDefined(key) ? attributes.getAttribute(key) : null);
+        }
+        return values;
+    }
+
+    private static void writeAttributes(Output output, AttributeSet attributes) throws IOException {
+        int definedKeys = 0;
+        for (int key = 0; key < ATTRIBUTE_KEYS.length; key++) {
+            if (attributes.isDefined(ATTRIBUTE_KEYS[key]))
+                definedKeys |= 1 << key;
+        }
+        output.buffer(1).put((byte) definedKeys);
+        for (int key = 0; key < ATTRIBUTE_KEYS.length; key++) {
+            if ((definedKeys & (1 << key)) == 0)
+                continue;
+            switch (key) {
+                case FONT_FAMILY:
+                    byte[] family = StyleConstants.getFontFamily(attributes).getBytes(StandardCharsets.UTF_8);
+                    output.writeVarInt(family.length);
+                    output.write(family);
+                    break;
+                case FONT_SIZE:
+                    output.writeVarInt(StyleConstants.getFontSize(attributes));
+                    break;
+                case FOREGROUND:
+                    output.buffer(4).putInt(StyleConstants.getForeground(attributes).getRGB());
+                    break;
+                case BACKGROUND:
+                    output.buffer(4).putInt(StyleConstants.getBackground(attributes).getRGB());
+                    break;
+                default: // the font styles
+                    output.buffer(1).put((byte) (Boolean.TRUE.equals(attributes.getAttribute(ATTRIBUTE_KEYS[key])) ? 1 : 0));
+            }
+        }
+    }
+
+    private static AttributeSet readAttributes(ByteBuffer buffer) {
+        MutableAttributeSet attributes = new SimpleAttributeSet();
+        int definedKeys = buffer.get() & 0xff;
+        for (int key = 0; key < ATTRIBUTE_KEYS.length; key++) {
+            if ((definedKeys & (1 << key)) == 0)
+                continue;
+            switch (key) {
+                case FONT_FAMILY:
+                    byte[] family = new byte[readVarInt(buffer)];
+                    buffer.get(family);
+                    StyleConstants.setFontFamily(attributes, new String(family, StandardCharsets.UTF_8));
+                    break;
+                case FONT_SIZE:
+                    StyleConstants.setFontSize(attributes, readVarInt(buffer));
+                    break;
+                case FOREGROUND:
+                    StyleConstants.setForeground(attributes, new Color(buffer.getInt(), true));
+                    break;
+                case BACKGROUND:
+                    StyleConstants.setBackground(attributes, new Color(buffer.getInt(), true));
+                    break;
+                default: // the font styles
+                    attributes.addAttribute(ATTRIBUTE_KEYS[key], buffer.get() != 0);
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Writes the text of the document encoded as UTF-8 without copying the entire text.
+     */
+    private static void writeText(StyledDocument doc, Output output, int length) throws IOException {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        var chars = CharBuffer.allocate(BUFFER_SIZE);
+        var segment = new Segment();
+        segment.setPartialReturn(true);
+        int offset = 0;
+        while (offset < length) {
+            try {
+                doc.getText(offset, Math.min(length - offset, chars.remaining()), segment);
+            } catch (BadLocationException e) {
+                throw new IllegalStateException(e);
+            }
+            chars.put(segment.array, segment.offset, segment.count);
+            offset += segment.count;
+            chars.flip();
+            encode(encoder, chars, output, offset == length);
+            chars.compact(); // keeps the first half of a surrogate pair at the end of the chars
+        }
+        chars.flip();
+        encode(encoder, chars, output, true);
+        while (encoder.flush(output.buffer(16)).isOverflow()) {
+            output.flush();
+        }
+    }
+
+    private static void encode(CharsetEncoder encoder, CharBuffer chars, Output output, boolean endOfInput) throws IOException {
+        while (true) {
+            var result = encoder.encode(chars, output.buffer(16), endOfInput);
+            if (!result.isOverflow())
+                break;
+            output.flush();
+        }
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IndexOutOfBoundsException("Invalid varint");
+    }
+
+    private static void insertRuns(StyledDocument doc, int offset, char[] text, int[] runEnds, AttributeSet[] runAttributes, int runCount) throws BadLocationException {
+        if (doc instanceof AnsiDocument) {
+            ((AnsiDocument) doc).insertRuns(offset, text, runEnds, runAttributes, runCount);
+            return;
+        }
+        int runStart = 0;
+        for (int i = 0; i < runCount; i++) {
+            doc.insertString(offset + runStart, new String(text, runStart, runEnds[i] - runStart), runAttributes[i]);
+            runStart = runEnds[i];
+        }
+    }
+
+    /**
+     * Writes the payload after the header through a buffer, while computing its checksum.
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+        private long length;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Returns the buffer with room for at least a number of bytes, which must not exceed the buffer size.
+         */
+        ByteBuffer buffer(int minRemaining) throws IOException {
+            if (buffer.remaining() < minRemaining)
+                flush();
+            return buffer;
+        }
+
+        void write(byte[] bytes) throws IOException {
+            for (int i = 0; i < bytes.length; i += BUFFER_SIZE) {
+                int length = Math.min(bytes.length - i, BUFFER_SIZE);
+                buffer(length).put(bytes, i, length);
+            }
+        }
+
+        void writeVarInt(int value) throws IOException {
+            var out = buffer(5);
+            while ((value & ~0x7f) != 0) {
+                out.put((byte) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            out.put((byte) value);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                length += channel.write(buffer, HEADER_SIZE + length);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.StyleContext;
+import java.awt.Font;
+import java.util.Arrays;
+
+/**
+ * The style context shared by the documents of an {@link AnsiEditorKit}.
+ * <p>
+ * ANSI text is shown with the Monospaced font in at most four variants per font size: plain, bold, italic, and bold
+ * italic. The style context creates these fonts once per font size, and returns the same font instances for every view
+ * and document, instead of looking up the fonts by family, style, and size in the font table of the
+ * {@link StyleContext}. The font metrics of these fonts are cached by the {@link AnsiEditorPane}.
+ */
+final class AnsiStyleContext extends StyleContext {
+
+    static final String FONT_FAMILY = "Monospaced";
+
+    private static final int MAX_CACHED_SIZE = 256;
+
+    // The plain, bold, italic, and bold italic font per font size
+    private Font[][] fonts = new Font[0][];
+
+    /**
+     * Creates the fonts for a font size in advance.
+     */
+    void createFonts(int size) {
+        getFont(FONT_FAMILY, Font.PLAIN, size);
+    }
+
+    @Override
+    public Font getFont(String family, int style, int size) {
+        if (size < 0 || size >= MAX_CACHED_SIZE || (style & ~(Font.BOLD | Font.ITALIC)) != 0 || !FONT_FAMILY.equals(family))
+            return super.getFont(family, style, size);
+
+        if (size >= fonts.length)
+            fonts = Arrays.copyOf(fonts, size + 1);
+        if (fonts[size] == null) {
+            var variants = new Font[4];
+            for (int i = 0; i < variants.length; i++) {
+                variants[i] = super.getFont(FONT_FAMILY, i, size); // the styles are PLAIN = 0, BOLD = 1, ITALIC = 2, and 3
+            }
+            fonts[size] = variants;
+        }
+        return fonts[size][style];
+    }
+
+    /**
+     * Checks if a font is one of the fonts created by the style context.
+     */
+    boolean isAnsiFont(Font font) {
+        int size = font.getSize();
+        return size < fonts.length && fonts[size] != null && fonts[size][font.getStyle()] == font;
+    }
+}
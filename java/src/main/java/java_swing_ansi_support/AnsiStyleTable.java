@@ -0,0 +1,88 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.MutableAttributeSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Numbers the distinct styles of an {@link AnsiEditorKit}, and memoizes the transitions between the styles caused by
+ * SGR parameters, e.g. from the default style to red and back again with a reset.
+ * <p>
+ * Logs repeat the same few transitions over and over, so after the first occurrence of a transition, the next style is
+ * found with a single array lookup instead of creating new attributes. The transitions are kept in a table with a row
+ * per style and a column per SGR parameter.
+ * <p>
+ * A style table is not thread-safe, and is used by one insert at a time.
+ */
+final class AnsiStyleTable {
+
+    /**
+     * The maximum number of styles of a table, which is reused by the next insert. A table with more styles is dropped
+     * after the insert, so the memory used by the table stays bounded.
+     */
+    static final int MAX_STYLES = 1024;
+
+    private static final int PARAMETERS = 108; // the SGR parameters of the AnsiEscCode values are less than 108
+
+    private final AnsiEditorKit kit;
+
+    private final Map<AttributeSet, Integer> styleIds = new HashMap<>();
+    private MutableAttributeSet[] styles = new MutableAttributeSet[16];
+    private int styleCount;
+
+    // The next style + 1 per style and SGR parameter, or 0 if the transition has not been resolved yet
+    private int[] transitions = new int[16 * PARAMETERS];
+
+    AnsiStyleTable(AnsiEditorKit kit) {
+        this.kit = kit;
+    }
+
+    /**
+     * Returns the number of styles in the table.
+     */
+    int size() {
+        return styleCount;
+    }
+
+    /**
+     * Returns the id of a style with specific attributes, which is added to the table if it is a new style.
+     * The attributes must not be modified afterwards.
+     */
+    int styleOf(MutableAttributeSet attributes) {
+        Integer style = styleIds.get(attributes);
+        if (style != null)
+            return style;
+
+        if (styleCount == styles.length) {
+            styles = Arrays.copyOf(styles, styleCount * 2);
+            transitions = Arrays.copyOf(transitions, styleCount * 2 * PARAMETERS);
+        }
+        styles[styleCount] = attributes;
+        styleIds.put(attributes, styleCount);
+        return styleCount++;
+    }
+
+    /**
+     * Returns the attributes of a style, which are shared by all text with the style and must not be modified.
+     */
+    MutableAttributeSet attributes(int style) {
+        return styles[style];
+    }
+
+    /**
+     * Returns the style resulting from applying a single SGR parameter to a style.
+     * Unsupported parameters are ignored.
+     */
+    int next(int style, int parameter) {
+        if (parameter >= PARAMETERS)
+            return style;
+        int next = transitions[style * PARAMETERS + parameter] - 1;
+        if (next < 0) {
+            next = styleOf(kit.updateAnsi(styles[style], parameter));
+            transitions[style * PARAMETERS + parameter] = next + 1;
+        }
+        return next;
+    }
+}
@@ -1,5 +1,12 @@
 package java_swing_ansi_support;
 
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * The AnsiTextBuilder is builder for building ANSI texts using a
  * <a href="https://java-design-patterns.com/patterns/fluentinterface/">Fluent Interface</a>.
@@ -10,18 +17,97 @@ package java_swing_ansi_support;
  *         .bold().red().text("bold").newline();
  *     editorPane.setText(ansiTextBuilder.build());
  * </pre>
+ * <p>
+ * The builder can also write the ANSI text straight to an {@link Appendable} like a {@link Writer}, or to a
+ * {@link ByteBuffer}, so large outputs can be streamed without building the entire text in memory first:
+ * <pre>
+ *     try (var writer = Files.newBufferedWriter(path)) {
+ *         new AnsiTextBuilder(writer)
+ *             .bold().red().text("bold").newline()
+ *             .flush();
+ *     }
+ * </pre>
+ * <p>
+ * Escape codes are not written right away. The builder keeps track of the current style, and writes the escape codes
+ * just before the next text as a single compound escape code like {@code ESC[1;31m}, leaving out codes that would not
+ * change the current style. Hence, {@code .red().red().bold().text("x")} writes {@code ESC[1;31mx}. Escape codes that
+ * are still pending when building or flushing the text are written at the end, so e.g. a final reset is kept.
  */
 public class AnsiTextBuilder {
-    private final StringBuilder builder = new StringBuilder();
+    private static final AnsiEscCode[] defaultStyle = {
+            AnsiEscCode.NORMAL, AnsiEscCode.NOT_ITALIC, AnsiEscCode.NOT_UNDERLINED,
+            AnsiEscCode.DEFAULT, AnsiEscCode.DEFAULT_BACKGROUND
+    };
+
+    private final Appendable appendable;
+
+    // The style of the written text per style slot, where null means that the style is unknown
+    private final AnsiEscCode[] currentStyle = new AnsiEscCode[defaultStyle.length];
+    // The escape codes that are waiting to be written before the next text per style slot
+    private final AnsiEscCode[] pendingStyle = new AnsiEscCode[defaultStyle.length];
+    private boolean pendingReset;
+    private boolean pending;
+    private final StringBuilder compoundEscCode = new StringBuilder();
+
+    /**
+     * Creates an AnsiTextBuilder that builds the ANSI text in memory. Use {@link #build()} to get the ANSI text.
+     */
+    public AnsiTextBuilder() {
+        this(new StringBuilder());
+    }
+
+    /**
+     * Creates an AnsiTextBuilder that writes the ANSI text directly to an {@link Appendable}, e.g. a {@link Writer},
+     * {@link java.io.PrintStream} or {@link StringBuilder}.
+     *
+     * @param appendable is the {@link Appendable} the ANSI text is written to.
+     */
+    public AnsiTextBuilder(Appendable appendable) {
+        if (appendable == null)
+            throw new IllegalArgumentException("appendable cannot be null");
+        this.appendable = appendable;
+    }
+
+    /**
+     * Creates an AnsiTextBuilder that writes the ANSI text directly to a {@link ByteBuffer} as UTF-8 encoded bytes.
+     *
+     * @param byteBuffer is the {@link ByteBuffer} the ANSI text is written to, starting from its current position.
+     * @throws java.nio.BufferOverflowException when the ANSI text does not fit into the remaining bytes of the buffer.
+     */
+    public AnsiTextBuilder(ByteBuffer byteBuffer) {
+        this(new AnsiByteWriter(byteBuffer));
+    }
 
     /**
      * Builds a text string containing ANSI Escape Codes based on the methods being called on the builder.
      * This method is the last method to call, when building the ANSI text is done.
+     * <p>
+     * When the builder writes to an {@link Appendable} given by the constructor, the text of that appendable is
+     * returned using its {@code toString()} method.
      *
      * @return a text string containing ANSI Escape Codes.
      */
     public String build() {
-        return builder.toString();
+        writePendingEscCodes();
+        return appendable.toString();
+    }
+
+    /**
+     * Flushes the {@link Appendable} the builder writes to, if it is {@link Flushable} like a {@link Writer}.
+     * This method is the last method to call, when streaming the ANSI text is done.
+     *
+     * @return an instance of this builder used for chaining methods.
+     */
+    public AnsiTextBuilder flush() {
+        writePendingEscCodes();
+        if (appendable instanceof Flushable) {
+            try {
+                ((Flushable) appendable).flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return this;
     }
 
     /**
@@ -31,7 +117,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder text(String plain) {
-        builder.append(plain);
+        append(plain);
         return this;
     }
 
@@ -41,7 +127,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder newline() {
-        builder.append("\n");
+        append('\n');
         return this;
     }
 
@@ -63,7 +149,7 @@ public class AnsiTextBuilder {
     public AnsiTextBuilder tab(Integer count) {
         if (count == null)
             count = 1;
-        repeat("\t", count);
+        repeat('\t', count);
         return this;
     }
 
@@ -85,14 +171,83 @@ public class AnsiTextBuilder {
     public AnsiTextBuilder space(Integer count) {
         if (count == null)
             count = 1;
-        repeat(" ", count);
+        repeat(' ', count);
         return this;
     }
 
-    private void repeat(Object fragment, int count) {
+    private void repeat(char fragment, int count) {
         if (count < 0)
             throw new IllegalArgumentException("count must be >= 0");
-        builder.append(String.valueOf(fragment).repeat(count));
+        for (int i = 0; i < count; i++) {
+            append(fragment);
+        }
+    }
+
+    private void append(CharSequence text) {
+        if (text.length() == 0)
+            return;
+        writePendingEscCodes();
+        try {
+            appendable.append(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void append(char ch) {
+        writePendingEscCodes();
+        try {
+            appendable.append(ch);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void append(AnsiEscCode escCode) {
+        pending = true;
+        if (escCode == AnsiEscCode.RESET) {
+            pendingReset = true;
+            Arrays.fill(pendingStyle, null);
+        } else {
+            pendingStyle[escCode.styleSlot()] = escCode;
+        }
+    }
+
+    private void writePendingEscCodes() {
+        if (!pending)
+            return;
+        pending = false;
+        compoundEscCode.setLength(0);
+
+        if (pendingReset) {
+            pendingReset = false;
+            if (!Arrays.equals(currentStyle, defaultStyle)) {
+                compoundEscCode.append(AnsiEscCode.RESET.parameter);
+                System.arraycopy(defaultStyle, 0, currentStyle, 0, defaultStyle.length);
+            }
+        }
+        for (int slot = 0; slot < pendingStyle.length; slot++) {
+            var escCode = pendingStyle[slot];
+            if (escCode == null)
+                continue;
+            pendingStyle[slot] = null;
+
+            // NOT_BOLD and NORMAL both turn off bold, so they are tracked as the same style
+            var style = (escCode == AnsiEscCode.NOT_BOLD) ? AnsiEscCode.NORMAL : escCode;
+            if (currentStyle[slot] != style) {
+                currentStyle[slot] = style;
+                if (compoundEscCode.length() > 0)
+                    compoundEscCode.append(';');
+                compoundEscCode.append(escCode.parameter);
+            }
+        }
+        if (compoundEscCode.length() > 0) {
+            try {
+                appendable.append("\u001b[").append(compoundEscCode).append('m');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 
     /**
@@ -102,7 +257,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder esc(AnsiEscCode escCode) {
-        builder.append(escCode);
+        append(escCode);
         return this;
     }
 
@@ -112,7 +267,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder reset() {
-        builder.append(AnsiEscCode.RESET);
+        append(AnsiEscCode.RESET);
         return this;
     }
 
@@ -134,7 +289,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder bold(boolean enabled) {
-        builder.append(enabled ? AnsiEscCode.BOLD : AnsiEscCode.NOT_BOLD);
+        append(enabled ? AnsiEscCode.BOLD : AnsiEscCode.NOT_BOLD);
         return this;
     }
 
@@ -156,7 +311,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder faint(boolean enabled) {
-        builder.append(enabled ? AnsiEscCode.FAINT : AnsiEscCode.NORMAL);
+        append(enabled ? AnsiEscCode.FAINT : AnsiEscCode.NORMAL);
         return this;
     }
 
@@ -178,7 +333,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder italic(boolean enabled) {
-        builder.append(enabled ? AnsiEscCode.ITALIC : AnsiEscCode.NOT_ITALIC);
+        append(enabled ? AnsiEscCode.ITALIC : AnsiEscCode.NOT_ITALIC);
         return this;
     }
 
@@ -200,7 +355,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder underline(boolean enabled) {
-        builder.append(enabled ? AnsiEscCode.UNDERLINE : AnsiEscCode.NOT_UNDERLINED);
+        append(enabled ? AnsiEscCode.UNDERLINE : AnsiEscCode.NOT_UNDERLINED);
         return this;
     }
 
@@ -210,7 +365,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder normal() {
-        builder.append(AnsiEscCode.NORMAL);
+        append(AnsiEscCode.NORMAL);
         return this;
     }
 
@@ -220,7 +375,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder black() {
-        builder.append(AnsiEscCode.BLACK);
+        append(AnsiEscCode.BLACK);
         return this;
     }
 
@@ -230,7 +385,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder red() {
-        builder.append(AnsiEscCode.RED);
+        append(AnsiEscCode.RED);
         return this;
     }
 
@@ -240,7 +395,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder green() {
-        builder.append(AnsiEscCode.GREEN);
+        append(AnsiEscCode.GREEN);
         return this;
     }
 
@@ -250,7 +405,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder yellow() {
-        builder.append(AnsiEscCode.YELLOW);
+        append(AnsiEscCode.YELLOW);
         return this;
     }
 
@@ -260,7 +415,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder blue() {
-        builder.append(AnsiEscCode.BLUE);
+        append(AnsiEscCode.BLUE);
         return this;
     }
 
@@ -270,7 +425,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder magenta() {
-        builder.append(AnsiEscCode.MAGENTA);
+        append(AnsiEscCode.MAGENTA);
         return this;
     }
 
@@ -280,7 +435,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder cyan() {
-        builder.append(AnsiEscCode.CYAN);
+        append(AnsiEscCode.CYAN);
         return this;
     }
 
@@ -290,7 +445,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder white() {
-        builder.append(AnsiEscCode.WHITE);
+        append(AnsiEscCode.WHITE);
         return this;
     }
 
@@ -300,7 +455,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder defaultColor() {
-        builder.append(AnsiEscCode.DEFAULT);
+        append(AnsiEscCode.DEFAULT);
         return this;
     }
 
@@ -310,7 +465,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightBlack() {
-        builder.append(AnsiEscCode.BRIGHT_BLACK);
+        append(AnsiEscCode.BRIGHT_BLACK);
         return this;
     }
 
@@ -320,7 +475,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightRed() {
-        builder.append(AnsiEscCode.BRIGHT_RED);
+        append(AnsiEscCode.BRIGHT_RED);
         return this;
     }
 
@@ -330,7 +485,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightGreen() {
-        builder.append(AnsiEscCode.BRIGHT_GREEN);
+        append(AnsiEscCode.BRIGHT_GREEN);
         return this;
     }
 
@@ -340,7 +495,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightYellow() {
-        builder.append(AnsiEscCode.BRIGHT_YELLOW);
+        append(AnsiEscCode.BRIGHT_YELLOW);
         return this;
     }
 
@@ -350,7 +505,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightBlue() {
-        builder.append(AnsiEscCode.BRIGHT_BLUE);
+        append(AnsiEscCode.BRIGHT_BLUE);
         return this;
     }
 
@@ -360,7 +515,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightMagenta() {
-        builder.append(AnsiEscCode.BRIGHT_MAGENTA);
+        append(AnsiEscCode.BRIGHT_MAGENTA);
         return this;
     }
 
@@ -370,7 +525,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightCyan() {
-        builder.append(AnsiEscCode.BRIGHT_CYAN);
+        append(AnsiEscCode.BRIGHT_CYAN);
         return this;
     }
 
@@ -380,7 +535,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightWhite() {
-        builder.append(AnsiEscCode.BRIGHT_WHITE);
+        append(AnsiEscCode.BRIGHT_WHITE);
         return this;
     }
 
@@ -390,7 +545,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder blackBg() {
-        builder.append(AnsiEscCode.BLACK_BACKGROUND);
+        append(AnsiEscCode.BLACK_BACKGROUND);
         return this;
     }
 
@@ -400,7 +555,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder redBg() {
-        builder.append(AnsiEscCode.RED_BACKGROUND);
+        append(AnsiEscCode.RED_BACKGROUND);
         return this;
     }
 
@@ -410,7 +565,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder greenBg() {
-        builder.append(AnsiEscCode.GREEN_BACKGROUND);
+        append(AnsiEscCode.GREEN_BACKGROUND);
         return this;
     }
 
@@ -420,7 +575,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder yellowBg() {
-        builder.append(AnsiEscCode.YELLOW_BACKGROUND);
+        append(AnsiEscCode.YELLOW_BACKGROUND);
         return this;
     }
 
@@ -430,7 +585,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder blueBg() {
-        builder.append(AnsiEscCode.BLUE_BACKGROUND);
+        append(AnsiEscCode.BLUE_BACKGROUND);
         return this;
     }
 
@@ -440,7 +595,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder magentaBg() {
-        builder.append(AnsiEscCode.MAGENTA_BACKGROUND);
+        append(AnsiEscCode.MAGENTA_BACKGROUND);
         return this;
     }
 
@@ -450,7 +605,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder cyanBg() {
-        builder.append(AnsiEscCode.CYAN_BACKGROUND);
+        append(AnsiEscCode.CYAN_BACKGROUND);
         return this;
     }
 
@@ -460,7 +615,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder whiteBg() {
-        builder.append(AnsiEscCode.WHITE_BACKGROUND);
+        append(AnsiEscCode.WHITE_BACKGROUND);
         return this;
     }
 
@@ -470,7 +625,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder defaultBg() {
-        builder.append(AnsiEscCode.DEFAULT_BACKGROUND);
+        append(AnsiEscCode.DEFAULT_BACKGROUND);
         return this;
     }
 
@@ -480,7 +635,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightBlackBg() {
-        builder.append(AnsiEscCode.BRIGHT_BLACK_BACKGROUND);
+        append(AnsiEscCode.BRIGHT_BLACK_BACKGROUND);
         return this;
     }
 
@@ -490,7 +645,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightRedBg() {
-        builder.append(AnsiEscCode.BRIGHT_RED_BACKGROUND);
+        append(AnsiEscCode.BRIGHT_RED_BACKGROUND);
         return this;
     }
 
@@ -500,7 +655,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightGreenBg() {
-        builder.append(AnsiEscCode.BRIGHT_GREEN_BACKGROUND);
+        append(AnsiEscCode.BRIGHT_GREEN_BACKGROUND);
         return this;
     }
 
@@ -510,7 +665,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightYellowBg() {
-        builder.append(AnsiEscCode.BRIGHT_YELLOW_BACKGROUND);
+        append(AnsiEscCode.BRIGHT_YELLOW_BACKGROUND);
         return this;
     }
 
@@ -520,7 +675,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightBlueBg() {
-        builder.append(AnsiEscCode.BRIGHT_BLUE_BACKGROUND);
+        append(AnsiEscCode.BRIGHT_BLUE_BACKGROUND);
         return this;
     }
 
@@ -530,7 +685,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightMagentaBg() {
-        builder.append(AnsiEscCode.BRIGHT_MAGENTA_BACKGROUND);
+        append(AnsiEscCode.BRIGHT_MAGENTA_BACKGROUND);
         return this;
     }
 
@@ -540,7 +695,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightCyanBg() {
-        builder.append(AnsiEscCode.BRIGHT_CYAN_BACKGROUND);
+        append(AnsiEscCode.BRIGHT_CYAN_BACKGROUND);
         return this;
     }
 
@@ -550,7 +705,7 @@ public class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     public AnsiTextBuilder brightWhiteBg() {
-        builder.append(AnsiEscCode.BRIGHT_WHITE_BACKGROUND);
+        append(AnsiEscCode.BRIGHT_WHITE_BACKGROUND);
         return this;
     }
 }
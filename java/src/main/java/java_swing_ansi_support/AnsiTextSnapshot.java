@@ -0,0 +1,126 @@
+package java_swing_ansi_support;
+
+import java.util.ConcurrentModificationException;
+import java.util.Objects;
+
+/**
+ * A snapshot of the text of an {@link AnsiDocument}, which is taken with {@link AnsiDocument#snapshot()} in O(1) time,
+ * and can be read on any thread without holding the lock of the document, e.g. for searching or exporting the text on
+ * a background thread, while text is appended to the document on the event dispatch thread.
+ * <p>
+ * The snapshot keeps the text that the document had when the snapshot was taken. Text appended to the document
+ * afterwards is not part of the snapshot, and does not affect it. When text is removed from the start of the document,
+ * e.g. by {@link AnsiDocument#trimLines(int)}, the removed text can no longer be read from the snapshot, while the rest
+ * of the snapshot can still be read. Other modifications of the text of the snapshot, like inserting or removing text
+ * before its end, invalidate the snapshot. Reading text that is no longer available throws a
+ * {@link ConcurrentModificationException}, which can be checked in advance with {@link #isValid()}.
+ * <p>
+ * Note that console output often modifies the end of the document: when the {@link AnsiEditorKit} writes a carriage
+ * return or a cursor movement followed by more text, e.g. for redrawing a progress bar, it overwrites the text of the
+ * last lines, which invalidates the snapshots that include them. A long-running reader should therefore expect the
+ * exception, take a new snapshot, and resume at the same offset, like the {@link AnsiSearchIndex} does.
+ * <p>
+ * The snapshot does not copy the text of the document. The text is read from the document in blocks, and the last
+ * block is kept by the snapshot, so reading the characters one by one with {@link #charAt(int)}, e.g. with a regular
+ * expression, only reads the document once per block. A snapshot is not thread-safe, but each thread can take its own
+ * snapshot of the same document.
+ */
+public final class AnsiTextSnapshot implements CharSequence {
+
+    private static final int BLOCK_SIZE = 4 * 1024;
+
+    private final AnsiContent content;
+    private final AnsiContent.Snapshot snapshot;
+    private final long start; // the position of the first character in the content
+    private final int length;
+
+    private char[] block;
+    private int blockStart;
+    private int blockLength;
+
+    AnsiTextSnapshot(AnsiContent content, AnsiContent.Snapshot snapshot) {
+        this(content, snapshot, snapshot.start, (int) (snapshot.end - snapshot.start));
+    }
+
+    private AnsiTextSnapshot(AnsiContent content, AnsiContent.Snapshot snapshot, long start, int length) {
+        this.content = content;
+        this.snapshot = snapshot;
+        this.start = start;
+        this.length = length;
+    }
+
+    /**
+     * Checks if all the text of the snapshot can still be read, i.e. the text of the snapshot has not been modified,
+     * and no text of the snapshot has been removed from the start of the document.
+     *
+     * @return {@code true} if the text can be read; {@code false} otherwise.
+     */
+    public boolean isValid() {
+        return content.isReadable(snapshot, start);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws ConcurrentModificationException if the text of the snapshot is no longer available.
+     */
+    @Override
+    public char charAt(int index) {
+        Objects.checkIndex(index, length);
+        if (index < blockStart || index >= blockStart + blockLength) {
+            if (block == null)
+                block = new char[Math.min(BLOCK_SIZE, length)];
+            blockStart = index - index % BLOCK_SIZE;
+            blockLength = Math.min(BLOCK_SIZE, length - blockStart);
+            try {
+                content.getChars(snapshot, start + blockStart, blockLength, block, 0);
+            } catch (ConcurrentModificationException e) {
+                blockLength = 0;
+                throw e;
+            }
+        }
+        return block[index - blockStart];
+    }
+
+    /**
+     * Returns a snapshot of a part of the text, which is created in O(1) time, and reads the same text as this
+     * snapshot.
+     */
+    @Override
+    public AnsiTextSnapshot subSequence(int start, int end) {
+        Objects.checkFromToIndex(start, end, length);
+        return new AnsiTextSnapshot(content, snapshot, this.start + start, end - start);
+    }
+
+    /**
+     * Copies characters from the snapshot into an array, like {@link String#getChars(int, int, char[], int)}.
+     *
+     * @param srcBegin is the index of the first character to copy.
+     * @param srcEnd   is the index after the last character to copy.
+     * @param dst      is the destination array.
+     * @param dstBegin is the start offset in the destination array.
+     * @throws ConcurrentModificationException if the text of the snapshot is no longer available.
+     */
+    public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        Objects.checkFromToIndex(srcBegin, srcEnd, length);
+        Objects.checkFromIndexSize(dstBegin, srcEnd - srcBegin, dst.length);
+        content.getChars(snapshot, start + srcBegin, srcEnd - srcBegin, dst, dstBegin);
+    }
+
+    /**
+     * Returns the text of the snapshot.
+     *
+     * @throws ConcurrentModificationException if the text of the snapshot is no longer available.
+     */
+    @Override
+    public String toString() {
+        var chars = new char[length];
+        getChars(0, length, chars, 0);
+        return new String(chars);
+    }
+}
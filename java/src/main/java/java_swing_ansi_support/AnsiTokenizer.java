@@ -0,0 +1,531 @@
+package java_swing_ansi_support;
+
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntBinaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The AnsiTokenizer splits ANSI text into runs of text with the same style, without Swing and without copying the
+ * text. This makes the parsing of the {@link AnsiEditorKit} available to headless code, e.g. for indexing logs or
+ * collecting metrics:
+ * <pre>
+ *     long errorChars = AnsiTokenizer.runs(log)
+ *             .filter(run -&gt; AnsiTokenizer.escCodes(run.styleId()).contains(AnsiEscCode.RED))
+ *             .mapToLong(run -&gt; run.end() - run.start())
+ *             .sum();
+ * </pre>
+ * The style of a run is identified by a style id, which encodes the SGR parameters in effect for the run, and 0 is the
+ * default style. Equal styles have equal style ids, also across texts. Carriage returns and CSI escape codes other
+ * than SGR codes are left out of the runs, as there is no cursor to move.
+ * <p>
+ * The escape codes are matched and applied by this class for all parsers of the library, so ANSI text is styled the
+ * same way everywhere. Empty SGR parameters count as 0, so {@code ESC[m} is a reset, and the sub-parameters of
+ * extended colors like {@code ESC[38;5;208m} are skipped, as only the 16 ANSI colors are supported.
+ * <p>
+ * The runs can be processed by a parallel stream. The text is then split at newlines, where the style at the start of
+ * the second part is found by scanning the escape codes of the first part.
+ */
+public final class AnsiTokenizer {
+
+    // The types of the tokens of a TokenCursor
+    static final int TEXT = 0;
+    static final int SGR_CODE = 1;
+    static final int CONTROL_CODE = 2;
+
+    private static final char ESC = 0x1b;
+    private static final int MIN_SPLIT_SIZE = 64 * 1024;
+
+    // The bit offset and width of the SGR parameter per style slot in a style id
+    private static final int[] SLOT_SHIFTS = {0, 5, 10, 15, 22};
+    private static final int[] SLOT_MASKS = {0x1f, 0x1f, 0x1f, 0x7f, 0x7f};
+
+    private AnsiTokenizer() {
+    }
+
+    /**
+     * A run of text with the same style, which refers to the ANSI text it is part of.
+     */
+    public static final class Run {
+        private final CharSequence source;
+        private final int start;
+        private final int end;
+        private final int styleId;
+
+        Run(CharSequence source, int start, int end, int styleId) {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+            this.styleId = styleId;
+        }
+
+        /**
+         * Returns the ANSI text that the run is part of.
+         */
+        public CharSequence source() {
+            return source;
+        }
+
+        /**
+         * Returns the start index of the run in the ANSI text.
+         */
+        public int start() {
+            return start;
+        }
+
+        /**
+         * Returns the end index of the run in the ANSI text, exclusive.
+         */
+        public int end() {
+            return end;
+        }
+
+        /**
+         * Returns the style id of the run. See {@link AnsiTokenizer#escCodes(int)}.
+         */
+        public int styleId() {
+            return styleId;
+        }
+
+        /**
+         * Returns the text of the run as a view of the ANSI text, so the text is not copied.
+         */
+        public CharSequence text() {
+            return CharBuffer.wrap(source, start, end);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "Run[" + start + ".." + end + ", styleId=" + styleId + "]";
+        }
+    }
+
+    /**
+     * Returns a stream of the styled runs of an ANSI text.
+     *
+     * @param ansiText is the ANSI text, which must not be modified while the stream is used.
+     * @return a sequential stream of the runs, which can be made parallel.
+     */
+    public static Stream<Run> runs(CharSequence ansiText) {
+        return StreamSupport.stream(spliterator(ansiText), false);
+    }
+
+    /**
+     * Returns a spliterator of the styled runs of an ANSI text, which splits the text at newlines.
+     *
+     * @param ansiText is the ANSI text, which must not be modified while the spliterator is used.
+     * @return a spliterator of the runs.
+     */
+    public static Spliterator<Run> spliterator(CharSequence ansiText) {
+        return new RunSpliterator(ansiText, 0, ansiText.length(), 0);
+    }
+
+    /**
+     * Returns a spliterator of the styled runs in a part of an ANSI text, which starts with a style, e.g. a line with
+     * the style set by the lines before it.
+     */
+    static Spliterator<Run> spliterator(CharSequence ansiText, int start, int end, int styleId) {
+        return new RunSpliterator(ansiText, start, end, styleId);
+    }
+
+    /**
+     * Returns the style at the end of a part of an ANSI text, which starts with a style, by applying the SGR codes of
+     * the part.
+     */
+    static int styleAfter(int styleId, CharSequence ansiText, int start, int end) {
+        var tokens = new TokenCursor().reset(ansiText, start, end, true);
+        while (tokens.next()) {
+            if (tokens.type() == SGR_CODE)
+                styleId = updateStyle(styleId, ansiText, tokens.start(), tokens.end());
+        }
+        return styleId;
+    }
+
+    /**
+     * Returns the escape codes that set a style starting from the default style.
+     *
+     * @param styleId is the style id of a run.
+     * @return the escape codes of the style, which is empty for the default style.
+     */
+    public static List<AnsiEscCode> escCodes(int styleId) {
+        var escCodes = new ArrayList<AnsiEscCode>(AnsiEscCode.STYLE_SLOTS);
+        for (int slot = 0; slot < AnsiEscCode.STYLE_SLOTS; slot++) {
+            int parameter = styleId >>> SLOT_SHIFTS[slot] & SLOT_MASKS[slot];
+            if (parameter != 0)
+                escCodes.add(AnsiEscCode.fromParameter(parameter));
+        }
+        return escCodes;
+    }
+
+    /**
+     * Matches a CSI escape code like {@code ESC[2K} starting at an ESC character, which consists of parameter
+     * characters, intermediate characters, and a final character.
+     *
+     * @return the end index of the escape code, -1 if the characters do not form an escape code within the maximum
+     * length of an escape code, or 0 if the limit is reached before it can be told, e.g. when the rest of the escape
+     * code has not been read yet.
+     */
+    static int matchCsiCode(CharSequence text, int start, int limit) {
+        int bound = Math.min(limit, start + AnsiEscCode.MAX_ESC_CODE_LENGTH);
+        int i = start + 1;
+        if (i < bound && text.charAt(i++) != '[')
+            return -1;
+        while (i < bound && text.charAt(i) >= 0x30 && text.charAt(i) <= 0x3f) { // parameter characters
+            i++;
+        }
+        while (i < bound && text.charAt(i) >= 0x20 && text.charAt(i) <= 0x2f) { // intermediate characters
+            i++;
+        }
+        if (i >= bound)
+            return bound == start + AnsiEscCode.MAX_ESC_CODE_LENGTH ? -1 : 0;
+        return text.charAt(i) >= 0x40 && text.charAt(i) <= 0x7e ? i + 1 : -1; // final character
+    }
+
+    /**
+     * Checks if a CSI escape code is an SGR escape code like {@code ESC[1;31m}, which has numeric parameters separated
+     * by semicolons. A parameter can be empty like in {@code ESC[m}, which counts as 0.
+     */
+    static boolean isSgrCode(CharSequence text, int codeStart, int codeEnd) {
+        if (text.charAt(codeEnd - 1) != 'm')
+            return false;
+        for (int i = codeStart + 2; i < codeEnd - 1; i++) { // skip ESC and '[', and the command
+            char ch = text.charAt(i);
+            if ((ch < '0' || ch > '9') && ch != ';')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first parameter of a CSI escape code like {@code ESC[2A}, or -1 if the code has no parameter.
+     */
+    static int firstParameter(CharSequence text, int codeStart, int codeEnd) {
+        int parameter = -1;
+        for (int i = codeStart + 2; i < codeEnd - 1; i++) { // skip ESC and '[', and the command
+            char ch = text.charAt(i);
+            if (ch < '0' || ch > '9')
+                break;
+            parameter = Math.min(Math.max(parameter, 0) * 10 + (ch - '0'), 0xffff);
+        }
+        return parameter;
+    }
+
+    /**
+     * Returns the style resulting from applying the SGR parameters of an escape code to a style one by one, e.g. both
+     * 1 and 31 of {@code ESC[1;31m}. Empty parameters are applied as 0. The sub-parameters of the extended colors 38,
+     * 48 and 58, like {@code 5;208} of {@code ESC[38;5;208m} or {@code 2;255;128;0} of {@code ESC[38;2;255;128;0m},
+     * are skipped together with the color, so they are not mistaken for other parameters.
+     *
+     * @param next returns the style resulting from applying a single parameter to a style.
+     */
+    static int applySgrCode(int style, CharSequence text, int codeStart, int codeEnd, IntBinaryOperator next) {
+        int parameter = 0;
+        int skipped = 0; // the number of sub-parameters left to skip, or -1 if the kind of extended color comes next
+        for (int i = codeStart + 2; i < codeEnd; i++) { // skip ESC and '['
+            char ch = text.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                parameter = Math.min(parameter * 10 + (ch - '0'), 0xffff); // avoid overflow on very long parameters
+                continue;
+            }
+            // ';' or 'm' ends a parameter
+            if (skipped < 0) {
+                skipped = parameter == 5 ? 1 : parameter == 2 ? 3 : 0; // an indexed or an RGB color
+            } else if (skipped > 0) {
+                skipped--;
+            } else if (parameter == 38 || parameter == 48 || parameter == 58) {
+                skipped = -1;
+            } else {
+                style = next.applyAsInt(style, parameter);
+            }
+            parameter = 0;
+        }
+        return style;
+    }
+
+    /**
+     * Returns the style resulting from applying the SGR parameters of an escape code to a style.
+     * Unsupported parameters are ignored.
+     */
+    static int updateStyle(int styleId, CharSequence ansiText, int codeStart, int codeEnd) {
+        return applySgrCode(styleId, ansiText, codeStart, codeEnd, AnsiTokenizer::nextStyleId);
+    }
+
+    /**
+     * Returns the style resulting from applying a single SGR parameter to a style.
+     */
+    private static int nextStyleId(int styleId, int parameter) {
+        var escCode = AnsiEscCode.findByParameter(parameter);
+        if (escCode == AnsiEscCode.RESET)
+            return 0;
+        if (escCode == null)
+            return styleId;
+        int slot = escCode.styleSlot();
+        int value = isDefault(escCode) ? 0 : parameter; // e.g. not bold is the same as the default style
+        return styleId & ~(SLOT_MASKS[slot] << SLOT_SHIFTS[slot]) | value << SLOT_SHIFTS[slot];
+    }
+
+    private static boolean isDefault(AnsiEscCode escCode) {
+        switch (escCode) {
+            case NOT_BOLD:
+            case NORMAL:
+            case NOT_ITALIC:
+            case NOT_UNDERLINED:
+            case DEFAULT:
+            case DEFAULT_BACKGROUND:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Steps through the tokens of a part of an ANSI text, which are text, SGR escape codes, and control codes. The
+     * control codes are carriage returns and other CSI escape codes, like cursor movements. A carriage return right
+     * before a newline is skipped, and an ESC that does not start an escape code is text. All parsers of the library
+     * tokenize ANSI text with a token cursor, so they agree on what is text and what is an escape code.
+     * <p>
+     * The text can be read in parts, e.g. from a stream. Unless the end of the part is the end of the input, the cursor
+     * then stops at an escape code that might continue after the part, so it can be matched again with more input.
+     * <p>
+     * The text between the control characters is found with the {@link AnsiScanner}. Byte and char buffers are scanned
+     * in place, while strings are copied into a block buffer first, as the scanner needs an array.
+     */
+    static final class TokenCursor {
+        private static final int BLOCK_SIZE = 4 * 1024;
+
+        private final AnsiScanner scanner = AnsiScanner.get();
+
+        private CharSequence text;
+        private int position;
+        private int end;
+        private boolean endOfInput;
+
+        private char[] block; // a copy of the text from blockStart to blockEnd, for texts that are not arrays
+        private int blockStart;
+        private int blockEnd;
+
+        private int type;
+        private int tokenStart;
+        private int tokenEnd;
+
+        /**
+         * Starts stepping through a part of a text.
+         *
+         * @param endOfInput {@code true} if the input ends at the end of the part; {@code false} if more input follows.
+         */
+        TokenCursor reset(CharSequence text, int start, int end, boolean endOfInput) {
+            this.text = text;
+            this.position = start;
+            this.end = end;
+            this.endOfInput = endOfInput;
+            blockStart = blockEnd = 0;
+            return this;
+        }
+
+        /**
+         * Moves to the next token.
+         *
+         * @return {@code false} if there are no more tokens in the part, or an escape code might continue after the
+         * part, in which case {@link #position()} is the start of the escape code.
+         */
+        boolean next() {
+            while (position < end) {
+                char ch = text.charAt(position);
+                if (ch == ESC) {
+                    int codeEnd = matchCsiCode(text, position, end);
+                    if (codeEnd == 0 && !endOfInput)
+                        return false;
+                    if (codeEnd > 0)
+                        return advance(isSgrCode(text, position, codeEnd) ? SGR_CODE : CONTROL_CODE, codeEnd);
+                } else if (ch == '\r') {
+                    if (position + 1 < end && text.charAt(position + 1) == '\n') {
+                        position++; // a carriage return before a newline is left out
+                        continue;
+                    }
+                    return advance(CONTROL_CODE, position + 1);
+                }
+                // The text until the next escape code or carriage return, where an ESC that does not start an escape
+                // code is text
+                return advance(TEXT, indexOfControl(position + 1));
+            }
+            return false;
+        }
+
+        private boolean advance(int tokenType, int nextPosition) {
+            type = tokenType;
+            tokenStart = position;
+            tokenEnd = nextPosition;
+            position = nextPosition;
+            return true;
+        }
+
+        private int indexOfControl(int from) {
+            if (text instanceof AsciiChars) {
+                return scanner.indexOfControl(((AsciiChars) text).array, from, end);
+            }
+            if (text instanceof CharBuffer && ((CharBuffer) text).hasArray()) {
+                var buffer = (CharBuffer) text;
+                int offset = buffer.arrayOffset() + buffer.position();
+                return scanner.indexOfControl(buffer.array(), offset + from, offset + end) - offset;
+            }
+            if (text instanceof String || text instanceof StringBuilder) {
+                // The cursor only moves forward, so each block is copied once
+                int i = from;
+                while (i < end) {
+                    if (i < blockStart || i >= blockEnd)
+                        copyBlock(i);
+                    int index = scanner.indexOfControl(block, i - blockStart, blockEnd - blockStart) + blockStart;
+                    if (index < blockEnd)
+                        return index;
+                    i = blockEnd;
+                }
+                return end;
+            }
+            for (int i = from; i < end; i++) {
+                char ch = text.charAt(i);
+                if (ch == ESC || ch == '\r')
+                    return i;
+            }
+            return end;
+        }
+
+        private void copyBlock(int from) {
+            if (block == null)
+                block = new char[BLOCK_SIZE];
+            blockStart = from;
+            blockEnd = Math.min(end, from + BLOCK_SIZE);
+            if (text instanceof String)
+                ((String) text).getChars(blockStart, blockEnd, block, 0);
+            else
+                ((StringBuilder) text).getChars(blockStart, blockEnd, block, 0);
+        }
+
+        /**
+         * Returns the type of the current token, which is {@link #TEXT}, {@link #SGR_CODE} or {@link #CONTROL_CODE}.
+         */
+        int type() {
+            return type;
+        }
+
+        int start() {
+            return tokenStart;
+        }
+
+        int end() {
+            return tokenEnd;
+        }
+
+        /**
+         * Returns the index after the current token, where the cursor continues.
+         */
+        int position() {
+            return position;
+        }
+    }
+
+    /**
+     * A view of bytes in an ASCII compatible charset as characters, so escape codes in bytes are matched and applied
+     * the same way as in text. The bytes of other characters are viewed as characters above 0x7f, which are never part
+     * of an escape code.
+     */
+    static final class AsciiChars implements CharSequence {
+        private byte[] array;
+        private int length;
+
+        /**
+         * Makes this a view of the first bytes of an array.
+         */
+        AsciiChars wrap(byte[] array, int length) {
+            this.array = array;
+            this.length = length;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (array[index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(array, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return new String(array, 0, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * A spliterator of the runs in a part of the ANSI text.
+     */
+    private static final class RunSpliterator implements Spliterator<Run> {
+        private final CharSequence ansiText;
+        private final int end;
+        private int styleId;
+        private final TokenCursor tokens = new TokenCursor();
+
+        RunSpliterator(CharSequence ansiText, int position, int end, int styleId) {
+            this.ansiText = ansiText;
+            this.end = end;
+            this.styleId = styleId;
+            tokens.reset(ansiText, position, end, true);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Run> action) {
+            while (tokens.next()) {
+                if (tokens.type() == TEXT) {
+                    action.accept(new Run(ansiText, tokens.start(), tokens.end(), styleId));
+                    return true;
+                }
+                if (tokens.type() == SGR_CODE)
+                    styleId = updateStyle(styleId, ansiText, tokens.start(), tokens.end());
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<Run> trySplit() {
+            int position = tokens.position();
+            if (end - position < MIN_SPLIT_SIZE)
+                return null;
+            int split = position + (end - position) / 2;
+            while (split < end && ansiText.charAt(split) != '\n') {
+                split++;
+            }
+            split++; // right after the newline
+            if (split >= end)
+                return null;
+
+            var prefix = new RunSpliterator(ansiText, position, split, styleId);
+            styleId = styleAfter(styleId, ansiText, position, split);
+            tokens.reset(ansiText, split, end, true);
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return (end - tokens.position()) / 16; // runs in logs are typically a few words long
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BoxView;
+import javax.swing.text.ComponentView;
+import javax.swing.text.Element;
+import javax.swing.text.IconView;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+
+/**
+ * The view factory of the {@link AnsiEditorKit}, which creates the same views as the {@link javax.swing.text.StyledEditorKit},
+ * except that paragraphs are shown with an {@link AnsiParagraphView}, and text runs with an {@link AnsiLabelView}.
+ */
+final class AnsiViewFactory implements ViewFactory {
+
+    @Override
+    public View create(Element elem) {
+        String kind = elem.getName();
+        if (kind != null) {
+            switch (kind) {
+                case AbstractDocument.ContentElementName:
+                    return new AnsiLabelView(elem);
+                case AbstractDocument.ParagraphElementName:
+                    return new AnsiParagraphView(elem);
+                case AbstractDocument.SectionElementName:
+                    return new BoxView(elem, View.Y_AXIS);
+                case StyleConstants.ComponentElementName:
+                    return new ComponentView(elem);
+                case StyleConstants.IconElementName:
+                    return new IconView(elem);
+            }
+        }
+        // default to text display
+        return new AnsiLabelView(elem);
+    }
+}
@@ -0,0 +1,63 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.StyledDocument;
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Checks that reading UTF-8 bytes with the {@link AnsiByteDecoder} gives the same document as inserting the decoded
+ * string with {@link AnsiEditorKit#insertAnsi(StyledDocument, String, int)}. The bytes are read a few at a time, so
+ * escape codes and multibyte characters are split across reads.
+ * <p>
+ * Run with {@code gradle byteDecoderTest}, which exits with status 1 if a check fails.
+ */
+public class ByteDecoderTest {
+
+    private static final int TEXTS = 200;
+    private static final int MAX_TEXT_LENGTH = 16 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        var kit = new AnsiEditorKit();
+        var random = new Random(26);
+        boolean passed = true;
+        for (int i = 0; i < TEXTS; i++) {
+            var text = TestTexts.randomAnsiText(random, random.nextInt(MAX_TEXT_LENGTH), true);
+            int maxRead = i % 2 == 0 ? Integer.MAX_VALUE : 1 + random.nextInt(16);
+
+            var expected = (StyledDocument) kit.createDefaultDocument();
+            kit.insertAnsi(expected, text, 0);
+            var actual = (StyledDocument) kit.createDefaultDocument();
+            kit.read(new SplitInputStream(text.getBytes(UTF_8), maxRead, random), actual, 0);
+
+            var difference = TestTexts.difference(expected, actual);
+            if (difference != null) {
+                System.out.printf("Text %d read at most %d bytes at a time: %s%n", i, maxRead, difference);
+                passed = false;
+            }
+        }
+        System.out.println(passed ? "The byte decoder equals the string parser" : "FAILED");
+        if (!passed)
+            System.exit(1);
+    }
+
+    /**
+     * An input stream that returns a random number of bytes up to a maximum per read.
+     */
+    private static final class SplitInputStream extends ByteArrayInputStream {
+        private final int maxRead;
+        private final Random random;
+
+        SplitInputStream(byte[] bytes, int maxRead, Random random) {
+            super(bytes);
+            this.maxRead = maxRead;
+            this.random = random;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, maxRead == Integer.MAX_VALUE ? len : 1 + random.nextInt(maxRead)));
+        }
+    }
+}
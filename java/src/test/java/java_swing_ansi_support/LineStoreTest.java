@@ -0,0 +1,51 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.StyledDocument;
+import java.util.Random;
+
+/**
+ * Checks that the lines of an {@link AnsiLineStore} read the same text as the lines of a document that the same ANSI
+ * text is inserted into. The text is appended to the store in small parts, so lines, escape codes and {@code \r\n}
+ * line breaks are split across appends. Cursor movements to other lines are left out, as the store resolves each
+ * line on its own.
+ * <p>
+ * Run with {@code gradle lineStoreTest}, which exits with status 1 if a check fails.
+ */
+public class LineStoreTest {
+
+    private static final int TEXTS = 500;
+    private static final int MAX_TEXT_LENGTH = 2 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        var kit = new AnsiEditorKit();
+        var random = new Random(49);
+        boolean passed = true;
+        for (int i = 0; i < TEXTS; i++) {
+            var text = TestTexts.randomAnsiText(random, random.nextInt(MAX_TEXT_LENGTH), true)
+                    .replace("\u001b[A", "").replace("\u001b[2A", "");
+            var doc = (StyledDocument) kit.createDefaultDocument();
+            kit.insertAnsi(doc, text, 0);
+            var store = new AnsiLineStore();
+            for (int start = 0, end; start < text.length(); start = end) {
+                end = Math.min(start + 1 + random.nextInt(64), text.length());
+                store.append(text.substring(start, end));
+            }
+
+            // The store does not count a last line without text, which can still have escape codes
+            var lines = doc.getText(0, doc.getLength()).split("\n", -1);
+            int lineCount = Math.max(store.lineCount(), lines.length);
+            for (int line = 0; line < lineCount; line++) {
+                var expected = line < lines.length ? lines[line] : "";
+                var actual = line < store.lineCount() ? store.lineText(line) : "";
+                if (!actual.equals(expected)) {
+                    System.out.printf("Text %d: line %d differs%n", i, line);
+                    passed = false;
+                    break;
+                }
+            }
+        }
+        System.out.println(passed ? "The line store equals the document" : "FAILED");
+        if (!passed)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,84 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.StyledDocument;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Checks that parsing ANSI text in parallel gives the same result as parsing it sequentially: the document of
+ * {@link AnsiEditorKit#insertAnsiParallel(StyledDocument, String, int, ForkJoinPool)} must equal the document of
+ * {@link AnsiEditorKit#insertAnsi(StyledDocument, String, int)}, and the parallel stream of
+ * {@link AnsiTokenizer#runs(CharSequence)} must give the runs of the sequential stream, apart from runs split at the
+ * newlines where the text is split.
+ * <p>
+ * The texts are long enough to be split into several chunks, so the styles and the control codes are carried across
+ * the chunks. Run with {@code gradle parallelParseTest}, which exits with status 1 if a check fails.
+ */
+public class ParallelParseTest {
+
+    private static final int TEXT_LENGTH = 512 * 1024;
+    private static final int TEXTS = 8;
+
+    public static void main(String[] args) throws Exception {
+        var kit = new AnsiEditorKit();
+        var pool = new ForkJoinPool(4);
+        var random = new Random(31);
+        boolean passed = true;
+        try {
+            for (int i = 0; i < TEXTS; i++) {
+                boolean controlCodes = i % 2 == 1;
+                var text = TestTexts.randomAnsiText(random, TEXT_LENGTH, controlCodes);
+                var prefix = i < 4 ? "" : "existing text\nof the document\n";
+                int offset = prefix.length() / 2; // inserting into the middle of a line
+
+                var sequential = (StyledDocument) kit.createDefaultDocument();
+                sequential.insertString(0, prefix, null);
+                kit.insertAnsi(sequential, text, offset);
+                var parallel = (StyledDocument) kit.createDefaultDocument();
+                parallel.insertString(0, prefix, null);
+                kit.insertAnsiParallel(parallel, text, offset, pool);
+
+                var difference = TestTexts.difference(sequential, parallel);
+                if (difference != null) {
+                    System.out.printf("Text %d with%s control codes: %s%n", i, controlCodes ? "" : "out", difference);
+                    passed = false;
+                }
+                if (!sameRuns(text)) {
+                    System.out.printf("Text %d: the runs of the parallel stream differ%n", i);
+                    passed = false;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.println(passed ? "Parallel parsing equals sequential parsing" : "FAILED");
+        if (!passed)
+            System.exit(1);
+    }
+
+    /**
+     * Checks if the parallel stream gives the same runs as the sequential stream, where a run that is split at the
+     * start of a part of the parallel stream is merged again.
+     */
+    private static boolean sameRuns(String text) {
+        var sequential = mergeRuns(AnsiTokenizer.runs(text).collect(Collectors.toList()));
+        var parallel = mergeRuns(AnsiTokenizer.runs(text).parallel().collect(Collectors.toList()));
+        return sequential.equals(parallel);
+    }
+
+    private static List<String> mergeRuns(List<AnsiTokenizer.Run> runs) {
+        var merged = new ArrayList<String>();
+        for (int i = 0; i < runs.size(); ) {
+            var run = runs.get(i++);
+            int end = run.end();
+            while (i < runs.size() && runs.get(i).start() == end && runs.get(i).styleId() == run.styleId()) {
+                end = runs.get(i++).end();
+            }
+            merged.add(run.start() + ".." + end + ":" + run.styleId());
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,111 @@
+package java_swing_ansi_support;
+
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that the {@link AnsiSearchIndex} finds the same matches as a brute force search of the text of the document,
+ * in the order of a "find next" from the offset of the search. The search texts are words of the document and random
+ * parts of its text, searched both with and without ignoring the case, while text is appended to the document.
+ * <p>
+ * Run with {@code gradle searchTest}, which exits with status 1 if a check fails.
+ */
+public class SearchTest {
+
+    private static final int APPENDS = 6;
+    private static final int APPEND_LENGTH = 96 * 1024;
+    private static final int SEARCHES_PER_APPEND = 20;
+    private static final String[] WORDS = {
+            "INFO", "info", "Request", "42 ms", "\u00c9T\u00c9", "\u4e2d", "line of log"};
+
+    public static void main(String[] args) throws Exception {
+        var kit = new AnsiEditorKit();
+        var random = new Random(50);
+        var doc = (AnsiDocument) kit.createDefaultDocument();
+        var index = new AnsiSearchIndex(doc);
+        boolean passed = true;
+        try {
+            for (int i = 0; i < APPENDS && passed; i++) {
+                var text = TestTexts.randomAnsiText(random, APPEND_LENGTH, false);
+                SwingUtilities.invokeAndWait(() -> insertAnsi(kit, doc, text));
+                var documentText = doc.getText(0, doc.getLength());
+
+                for (int s = 0; s < SEARCHES_PER_APPEND; s++) {
+                    var searchText = s % 2 == 0 ? WORDS[random.nextInt(WORDS.length)]
+                            : randomPart(random, documentText);
+                    boolean ignoreCase = random.nextBoolean();
+                    int fromOffset = random.nextInt(documentText.length() + 1);
+
+                    var expected = bruteForceSearch(documentText, searchText, ignoreCase, fromOffset);
+                    var actual = search(index, searchText, ignoreCase, fromOffset);
+                    if (!expected.equals(actual)) {
+                        System.out.printf("Search for \"%s\"%s from %d: %d matches instead of %d%n", searchText,
+                                ignoreCase ? " ignoring the case" : "", fromOffset, actual.size(), expected.size());
+                        passed = false;
+                    }
+                }
+            }
+        } finally {
+            index.close();
+        }
+        System.out.println(passed ? "The search index equals a brute force search" : "FAILED");
+        if (!passed)
+            System.exit(1);
+    }
+
+    private static void insertAnsi(AnsiEditorKit kit, AnsiDocument doc, String text) {
+        try {
+            kit.insertAnsi(doc, text, doc.getLength());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String randomPart(Random random, String text) {
+        int length = 1 + random.nextInt(8);
+        int start = random.nextInt(text.length() - length);
+        return text.substring(start, start + length);
+    }
+
+    private static List<Integer> search(AnsiSearchIndex index, String text, boolean ignoreCase, int fromOffset)
+            throws Exception {
+        var matches = new ArrayList<Integer>();
+        var completed = new CountDownLatch(1);
+        SwingUtilities.invokeAndWait(() -> index.search(text, ignoreCase, fromOffset,
+                new AnsiSearchIndex.SearchListener() {
+                    @Override
+                    public void matchesFound(int[] matchStarts, int matchLength) {
+                        for (int matchStart : matchStarts) {
+                            matches.add(matchStart);
+                        }
+                    }
+
+                    @Override
+                    public void searchCompleted() {
+                        completed.countDown();
+                    }
+                }));
+        if (!completed.await(1, TimeUnit.MINUTES))
+            throw new IllegalStateException("The search did not complete");
+        return matches;
+    }
+
+    /**
+     * Returns the matches from an offset to the end of a text, followed by the matches from the start of the text
+     * before the offset.
+     */
+    private static List<Integer> bruteForceSearch(String text, String searchText, boolean ignoreCase, int fromOffset) {
+        var matches = new ArrayList<Integer>();
+        var matchesBefore = new ArrayList<Integer>();
+        for (int start = 0; start + searchText.length() <= text.length(); start++) {
+            if (text.regionMatches(ignoreCase, start, searchText, 0, searchText.length()))
+                (start >= fromOffset ? matches : matchesBefore).add(start);
+        }
+        matches.addAll(matchesBefore);
+        return matches;
+    }
+}
@@ -0,0 +1,76 @@
+package java_swing_ansi_support;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checks that the storage tiers of the {@link AnsiDocument} round-trip the text: a document storing its text
+ * compressed, off-heap, or spilled to disk with a memory budget must read back the same text and styles as a document
+ * storing its text on the heap, after the same appends and trims. The snapshots of the documents must read the same
+ * text too.
+ * <p>
+ * Run with {@code gradle storageTest}, which exits with status 1 if a check fails.
+ */
+public class StorageTest {
+
+    private static final int APPENDS = 400;
+    private static final int MAX_APPEND_LENGTH = 4 * 1024;
+    private static final int MAX_LINES = 2_000;
+    private static final long MEMORY_BUDGET = 4 * AnsiContent.CHUNK_SIZE;
+
+    public static void main(String[] args) throws Exception {
+        var kit = new AnsiEditorKit();
+        var random = new Random(48);
+        var expected = (AnsiDocument) kit.createDefaultDocument();
+        var documents = new ArrayList<AnsiDocument>();
+        var names = new ArrayList<String>();
+        for (int tiers = 1; tiers < 8; tiers++) {
+            var doc = (AnsiDocument) kit.createDefaultDocument();
+            doc.setCompressedStorage((tiers & 1) != 0);
+            doc.setOffHeapStorage((tiers & 2) != 0);
+            doc.setMemoryBudget((tiers & 4) != 0 ? MEMORY_BUDGET : 0);
+            documents.add(doc);
+            names.add(((tiers & 1) != 0 ? " compressed" : "") + ((tiers & 2) != 0 ? " off-heap" : "")
+                    + ((tiers & 4) != 0 ? " spilled" : ""));
+        }
+
+        boolean passed = true;
+        try {
+            for (int i = 1; i <= APPENDS && passed; i++) {
+                var text = TestTexts.randomAnsiText(random, random.nextInt(MAX_APPEND_LENGTH), i % 4 == 0);
+                kit.insertAnsi(expected, text, expected.getLength());
+                for (var doc : documents) {
+                    kit.insertAnsi(doc, text, doc.getLength());
+                }
+                if (i % 10 == 0) {
+                    expected.trimLines(MAX_LINES);
+                    for (var doc : documents) {
+                        doc.trimLines(MAX_LINES);
+                    }
+                }
+                if (i % 50 != 0)
+                    continue;
+
+                var expectedText = expected.getText(0, expected.getLength());
+                for (int d = 0; d < documents.size(); d++) {
+                    var doc = documents.get(d);
+                    var difference = TestTexts.difference(expected, doc);
+                    if (difference == null && !doc.snapshot().toString().equals(expectedText))
+                        difference = "the snapshot differs";
+                    if (difference != null) {
+                        System.out.printf("After %d appends to the%s document: %s%n", i, names.get(d), difference);
+                        passed = false;
+                    }
+                }
+            }
+        } finally {
+            expected.dispose();
+            for (var doc : documents) {
+                doc.dispose();
+            }
+        }
+        System.out.println(passed ? "All storage tiers round-trip the text" : "FAILED");
+        if (!passed)
+            System.exit(1);
+    }
+}
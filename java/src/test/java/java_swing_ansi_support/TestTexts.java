@@ -0,0 +1,76 @@
+package java_swing_ansi_support;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.StyledDocument;
+import java.util.Random;
+
+/**
+ * Generates random ANSI texts for the tests, and compares the documents they are inserted into.
+ */
+final class TestTexts {
+
+    // The parts of the random texts, where the escape codes, control codes and characters outside the BMP are the
+    // cases the parsing paths must agree on
+    private static final String[] TEXT_PARTS = {
+            "INFO", " request ", "handled", " in 42 ms", "\t", "x", "\u00e9t\u00e9", "\u4e2d\u6587", "\uD83D\uDE00",
+            " a long line of log output that is longer than the short parts around it"};
+    private static final String[] LINE_BREAKS = {"\n", "\r\n"};
+    private static final String[] SGR_CODES = {
+            "\u001b[0m", "\u001b[m", "\u001b[1m", "\u001b[3m", "\u001b[4m", "\u001b[31m", "\u001b[1;32m", "\u001b[44m",
+            "\u001b[22;39m", "\u001b[;31m", "\u001b[38;5;208m", "\u001b[48;2;255;128;0m", "\u001b[38;2;1;4;31m"};
+    private static final String[] CONTROL_CODES = {
+            "\r", "\u001b[K", "\u001b[1K", "\u001b[2K", "\u001b[A", "\u001b[2A", "\u001b[5n", "\u001b", "\u001b[",
+            "\u001b[?25l"};
+
+    private TestTexts() {
+    }
+
+    /**
+     * Returns a random ANSI text of about a length.
+     *
+     * @param controlCodes {@code true} for including control codes like carriage returns and cursor movements;
+     *                     {@code false} for only text, line breaks and SGR codes.
+     */
+    static String randomAnsiText(Random random, int length, boolean controlCodes) {
+        var text = new StringBuilder(length + 128);
+        while (text.length() < length) {
+            int kind = random.nextInt(20);
+            if (kind < 10) {
+                text.append(TEXT_PARTS[random.nextInt(TEXT_PARTS.length)]);
+            } else if (kind < 14) {
+                text.append(LINE_BREAKS[random.nextInt(LINE_BREAKS.length)]);
+            } else if (kind < 18 || !controlCodes) {
+                text.append(SGR_CODES[random.nextInt(SGR_CODES.length)]);
+            } else {
+                text.append(CONTROL_CODES[random.nextInt(CONTROL_CODES.length)]);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Compares the text and the attributes of two documents.
+     *
+     * @return a description of the first difference, or {@code null} if the documents are equal.
+     */
+    static String difference(StyledDocument expected, StyledDocument actual) throws BadLocationException {
+        var expectedText = expected.getText(0, expected.getLength());
+        var actualText = actual.getText(0, actual.getLength());
+        if (!expectedText.equals(actualText)) {
+            int offset = 0;
+            while (offset < Math.min(expectedText.length(), actualText.length())
+                    && expectedText.charAt(offset) == actualText.charAt(offset)) {
+                offset++;
+            }
+            return "text differs at offset " + offset + " of " + expectedText.length() + " and " + actualText.length();
+        }
+        for (int offset = 0; offset < expectedText.length(); ) {
+            var expectedElement = expected.getCharacterElement(offset);
+            var actualElement = actual.getCharacterElement(offset);
+            if (!expectedElement.getAttributes().isEqual(actualElement.getAttributes()))
+                return "attributes differ at offset " + offset;
+            offset = Math.min(expectedElement.getEndOffset(), actualElement.getEndOffset());
+        }
+        return null;
+    }
+}
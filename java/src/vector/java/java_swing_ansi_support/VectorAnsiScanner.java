@@ -0,0 +1,58 @@
+package java_swing_ansi_support;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The scanner using the incubating Vector API, which compares as many characters at a time as fit into the widest
+ * vector register of the CPU, e.g. 32 bytes or 16 characters with AVX2.
+ * <p>
+ * This class is compiled separately with {@code --add-modules jdk.incubator.vector}, and is only loaded by
+ * {@link AnsiScanner} when the module is available at runtime.
+ */
+final class VectorAnsiScanner extends AnsiScanner {
+
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Short> CHARS = ShortVector.SPECIES_PREFERRED;
+
+    @Override
+    int indexOfControl(byte[] array, int from, int to) {
+        int i = from;
+        for (int bound = from + BYTES.loopBound(to - from); i < bound; i += BYTES.length()) {
+            var vector = ByteVector.fromArray(BYTES, array, i);
+            VectorMask<Byte> controls = vector.eq(ESC).or(vector.eq(CR));
+            if (controls.anyTrue())
+                return i + controls.firstTrue();
+        }
+        for (; i < to; i++) {
+            byte b = array[i];
+            if (b == ESC || b == CR)
+                return i;
+        }
+        return to;
+    }
+
+    @Override
+    int indexOfControl(char[] array, int from, int to) {
+        int i = from;
+        for (int bound = from + CHARS.loopBound(to - from); i < bound; i += CHARS.length()) {
+            var vector = ShortVector.fromCharArray(CHARS, array, i);
+            VectorMask<Short> controls = vector.eq((short) ESC).or(vector.eq((short) CR));
+            if (controls.anyTrue())
+                return i + controls.firstTrue();
+        }
+        for (; i < to; i++) {
+            char ch = array[i];
+            if (ch == ESC || ch == CR)
+                return i;
+        }
+        return to;
+    }
+
+    @Override
+    String name() {
+        return "vector (" + BYTES.length() + " bytes)";
+    }
+}
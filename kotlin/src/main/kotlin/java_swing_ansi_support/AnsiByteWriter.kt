@@ -0,0 +1,215 @@
+package java_swing_ansi_support
+
+import java.io.Closeable
+import java.io.Flushable
+import java.io.OutputStream
+import java.nio.BufferOverflowException
+import java.nio.ByteBuffer
+
+/**
+ * The AnsiByteWriter writes ANSI text as UTF-8 encoded bytes directly to an [OutputStream] or a [ByteBuffer], without
+ * encoding the text through an intermediate [String] or [java.io.Writer].
+ *
+ * Escape codes are written using the cached bytes of the [AnsiEscCode], and runs of ASCII characters are copied
+ * straight into the buffer. Only non-ASCII characters go through the UTF-8 encoding.
+ *
+ * Example of how to use the AnsiByteWriter:
+ * <pre>
+ *     AnsiByteWriter(socket.getOutputStream()).use { writer ->
+ *         writer.esc(AnsiEscCode.RED).text("error").esc(AnsiEscCode.RESET).text("\n")
+ *     }
+ * </pre>
+ * The AnsiByteWriter is also an [Appendable], so it can be used as the target of an [AnsiTextBuilder].
+ */
+class AnsiByteWriter private constructor(
+    private val outputStream: OutputStream?, // null, when writing to a ByteBuffer given by the user
+    private val buffer: ByteBuffer
+) : Appendable, Flushable, Closeable {
+
+    /**
+     * Creates an AnsiByteWriter that writes to an [OutputStream].
+     *
+     * @param outputStream is the [OutputStream] to write to.
+     * @param bufferSize is the size of the buffer in bytes used before writing to the output stream. Must be >= 4.
+     * Default is 8 KB.
+     */
+    constructor(outputStream: OutputStream, bufferSize: Int = 8 * 1024) :
+            this(outputStream, ByteBuffer.allocate(bufferSize.also {
+                require(it >= 4) { "bufferSize must be >= 4. Was: $it" }
+            }))
+
+    /**
+     * Creates an AnsiByteWriter that writes to a [ByteBuffer], starting from its current position.
+     * The buffer can be reused by clearing it, when its content has been consumed.
+     *
+     * @param byteBuffer is the [ByteBuffer] to write to.
+     * @throws BufferOverflowException when writing more bytes than what is remaining in the buffer.
+     */
+    constructor(byteBuffer: ByteBuffer) : this(null, byteBuffer)
+
+    /**
+     * Writes an [AnsiEscCode].
+     * @return an instance of this writer used for chaining methods.
+     *
+     * @param escCode is the [AnsiEscCode] to write.
+     */
+    fun esc(escCode: AnsiEscCode): AnsiByteWriter = write(escCode.escBytes)
+
+    /**
+     * Writes plain text.
+     * @return an instance of this writer used for chaining methods.
+     *
+     * @param text is the plain text to write.
+     */
+    fun text(text: CharSequence): AnsiByteWriter = append(text, 0, text.length)
+
+    /**
+     * Writes raw bytes, e.g. text that is already UTF-8 encoded.
+     * @return an instance of this writer used for chaining methods.
+     *
+     * @param bytes is the array containing the bytes to write.
+     * @param offset is the offset of the first byte to write. Default is 0.
+     * @param length is the number of bytes to write. Default is all bytes after the offset.
+     */
+    fun write(bytes: ByteArray, offset: Int = 0, length: Int = bytes.size - offset): AnsiByteWriter {
+        var off = offset
+        var len = length
+        if (outputStream != null) {
+            while (len > buffer.remaining()) {
+                val count = buffer.remaining()
+                buffer.put(bytes, off, count)
+                off += count
+                len -= count
+                drain()
+            }
+        }
+        buffer.put(bytes, off, len)
+        return this
+    }
+
+    /** {@inheritDoc} */
+    override fun append(csq: CharSequence?): AnsiByteWriter {
+        val text = csq ?: "null"
+        return append(text, 0, text.length)
+    }
+
+    /** {@inheritDoc} */
+    override fun append(csq: CharSequence?, start: Int, end: Int): AnsiByteWriter {
+        val text = csq ?: "null"
+        var i = start
+        while (i < end) {
+            i = appendAscii(text, i, end)
+            if (i == end) break
+
+            val ch = text[i]
+            if (ch.code < 0x80) {
+                drain() // the buffer is full
+            } else if (ch.isHighSurrogate() && i + 1 < end && text[i + 1].isLowSurrogate()) {
+                putUtf8(Character.toCodePoint(ch, text[i + 1]))
+                i += 2
+            } else {
+                putUtf8(ch.code)
+                i++
+            }
+        }
+        return this
+    }
+
+    /** {@inheritDoc} */
+    override fun append(ch: Char): AnsiByteWriter {
+        if (ch.code < 0x80) {
+            if (!buffer.hasRemaining()) drain()
+            buffer.put(ch.code.toByte())
+        } else {
+            putUtf8(ch.code)
+        }
+        return this
+    }
+
+    /**
+     * Writes the buffered bytes to the output stream and flushes it.
+     * This method has no effect when writing to a [ByteBuffer].
+     */
+    override fun flush() {
+        if (outputStream != null) {
+            drain()
+            outputStream.flush()
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the output stream and closes it.
+     * This method has no effect when writing to a [ByteBuffer].
+     */
+    override fun close() {
+        outputStream?.use { drain() }
+    }
+
+    /**
+     * Returns the bytes written to the [ByteBuffer], from position 0 up to the current position, decoded as UTF-8.
+     * When writing to an [OutputStream], only the bytes not yet written to the stream are returned.
+     */
+    override fun toString(): String = Charsets.UTF_8.decode(buffer.duplicate().flip()).toString()
+
+    /**
+     * Copies characters into the buffer while they are ASCII and there is room in the buffer.
+     *
+     * @return the index of the first character that was not copied.
+     */
+    private fun appendAscii(text: CharSequence, start: Int, end: Int): Int {
+        var i = start
+        if (buffer.hasArray()) {
+            val array = buffer.array()
+            var pos = buffer.arrayOffset() + buffer.position()
+            val limit = minOf(buffer.arrayOffset() + buffer.limit(), pos + (end - start))
+            while (pos < limit) {
+                val ch = text[i]
+                if (ch.code >= 0x80) break
+                array[pos++] = ch.code.toByte()
+                i++
+            }
+            buffer.position(pos - buffer.arrayOffset())
+        } else {
+            while (i < end && buffer.hasRemaining()) {
+                val ch = text[i]
+                if (ch.code >= 0x80) break
+                buffer.put(ch.code.toByte())
+                i++
+            }
+        }
+        return i
+    }
+
+    private fun putUtf8(codePoint: Int) {
+        if (buffer.remaining() < 4 && outputStream != null) drain()
+
+        when {
+            codePoint in Char.MIN_SURROGATE.code..Char.MAX_SURROGATE.code ->
+                buffer.put('?'.code.toByte()) // unpaired surrogate
+
+            codePoint < 0x800 -> {
+                buffer.put((0xc0 or (codePoint shr 6)).toByte())
+                buffer.put((0x80 or (codePoint and 0x3f)).toByte())
+            }
+
+            codePoint < 0x10000 -> {
+                buffer.put((0xe0 or (codePoint shr 12)).toByte())
+                buffer.put((0x80 or ((codePoint shr 6) and 0x3f)).toByte())
+                buffer.put((0x80 or (codePoint and 0x3f)).toByte())
+            }
+
+            else -> {
+                buffer.put((0xf0 or (codePoint shr 18)).toByte())
+                buffer.put((0x80 or ((codePoint shr 12) and 0x3f)).toByte())
+                buffer.put((0x80 or ((codePoint shr 6) and 0x3f)).toByte())
+                buffer.put((0x80 or (codePoint and 0x3f)).toByte())
+            }
+        }
+    }
+
+    private fun drain() {
+        if (outputStream == null) throw BufferOverflowException()
+        outputStream.write(buffer.array(), buffer.arrayOffset(), buffer.position())
+        buffer.clear()
+    }
+}
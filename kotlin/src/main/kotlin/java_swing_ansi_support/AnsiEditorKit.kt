@@ -23,9 +23,9 @@ class AnsiEditorKit(
 
     override fun getContentType() = "text/x-ansi"
 
-    /** {@inheritDoc} */
+    /** Reads UTF-8 encoded ANSI text from an input stream, and inserts it into the document. */
     override fun read(inputStream: InputStream, doc: Document, pos: Int) {
-        read(BufferedReader(InputStreamReader(inputStream)), doc, pos)
+        read(BufferedReader(InputStreamReader(inputStream, Charsets.UTF_8)), doc, pos)
     }
 
     /** {@inheritDoc} */
@@ -36,7 +36,9 @@ class AnsiEditorKit(
 
     /** {@inheritDoc} */
     override fun write(outputStream: OutputStream, doc: Document, pos: Int, len: Int) {
-        write(BufferedWriter(OutputStreamWriter(outputStream)), doc, pos, len)
+        val writer = BufferedWriter(OutputStreamWriter(outputStream, Charsets.UTF_8))
+        write(writer, doc, pos, len)
+        writer.flush()
     }
 
     /** {@inheritDoc} */
@@ -78,11 +80,10 @@ class AnsiEditorKit(
         }
 
         ansiEscCodeRegex.findAll(ansiText, codeStart).forEach { m ->
-            val ansiCode = m.value
             codeStart = m.range.first
             val codeEnd = m.range.last + 1
 
-            attributes = attributes.updateAnsi(AnsiEscCode.fromEscCode(ansiCode), ansiColors)
+            attributes = updateAnsi(attributes, ansiText, codeStart, codeEnd)
 
             val endMatch = ansiEscCodeRegex.find(ansiText, codeEnd)
 
@@ -96,4 +97,24 @@ class AnsiEditorKit(
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Updates the attributes with all SGR parameters of an escape code, which can be a compound code like `ESC[1;31m`.
+     */
+    private fun updateAnsi(
+        attributes: MutableAttributeSet, ansiText: CharSequence, codeStart: Int, codeEnd: Int
+    ): MutableAttributeSet {
+        var result = attributes
+        var parameter = 0
+        for (i in codeStart + 2 until codeEnd) { // skip ESC and '['
+            val ch = ansiText[i]
+            if (ch in '0'..'9') {
+                parameter = minOf(parameter * 10 + (ch - '0'), 0xffff) // avoid overflow on very long parameters
+            } else { // ';' or 'm'
+                result = result.updateAnsi(AnsiEscCode.fromParameter(parameter), ansiColors)
+                parameter = 0
+            }
+        }
+        return result
+    }
+}
@@ -1,5 +1,8 @@
 package java_swing_ansi_support
 
+import java.io.Flushable
+import java.nio.ByteBuffer
+
 /**
  * The AnsiTextBuilder is builder for building ANSI texts using a
  * [Fluent Interface](https://java-design-patterns.com/patterns/fluentinterface/).
@@ -10,18 +13,67 @@ package java_swing_ansi_support
  *         .bold().red().text("bold").newline()
  *     editorPane.text = ansiTextBuilder.build()
  * </pre>
+ *
+ * The builder can also write the ANSI text straight to an [Appendable] like a [java.io.Writer], or to a [ByteBuffer],
+ * so large outputs can be streamed without building the entire text in memory first:
+ * <pre>
+ *     Files.newBufferedWriter(path).use { writer ->
+ *         AnsiTextBuilder(writer)
+ *             .bold().red().text("bold").newline()
+ *             .flush()
+ *     }
+ * </pre>
+ *
+ * Escape codes are not written right away. The builder keeps track of the current style, and writes the escape codes
+ * just before the next text as a single compound escape code like `ESC[1;31m`, leaving out codes that would not change
+ * the current style. Hence, `.red().red().bold().text("x")` writes `ESC[1;31mx`. Escape codes that are still pending
+ * when building or flushing the text are written at the end, so e.g. a final reset is kept.
+ *
+ * @param appendable is the [Appendable] the ANSI text is written to. Default is an in-memory [StringBuilder].
  */
-class AnsiTextBuilder {
+class AnsiTextBuilder(private val appendable: Appendable = StringBuilder()) {
 
-    private val builder = StringBuilder()
+    // The style of the written text per style slot, where null means that the style is unknown
+    private val currentStyle = arrayOfNulls<AnsiEscCode>(defaultStyle.size)
+
+    // The escape codes that are waiting to be written before the next text per style slot
+    private val pendingStyle = arrayOfNulls<AnsiEscCode>(defaultStyle.size)
+    private var pendingReset = false
+    private var pending = false
+    private val compoundEscCode = StringBuilder()
+
+    /**
+     * Creates an AnsiTextBuilder that writes the ANSI text directly to a [ByteBuffer] as UTF-8 encoded bytes,
+     * starting from its current position.
+     *
+     * @throws java.nio.BufferOverflowException when the ANSI text does not fit into the remaining bytes of the buffer.
+     */
+    constructor(byteBuffer: ByteBuffer) : this(AnsiByteWriter(byteBuffer))
 
     /**
      * Builds a text string containing ANSI Escape Codes based on the methods being called on the builder.
      * This method is the last method to call, when building the ANSI text is done.
      *
+     * When the builder writes to an [Appendable] given by the constructor, the text of that appendable is returned
+     * using its `toString()` method.
+     *
      * @return a text string containing ANSI Escape Codes.
      */
-    fun build(): String = builder.toString()
+    fun build(): String {
+        writePendingEscCodes()
+        return appendable.toString()
+    }
+
+    /**
+     * Flushes the [Appendable] the builder writes to, if it is [Flushable] like a [java.io.Writer].
+     * This method is the last method to call, when streaming the ANSI text is done.
+     * @return an instance of this builder used for chaining methods.
+     */
+    fun flush(): AnsiTextBuilder {
+        writePendingEscCodes()
+        (appendable as? Flushable)?.flush()
+        return this
+    }
 
     /**
      * Appends plain text to the ANSI string.
@@ -30,7 +82,10 @@ class AnsiTextBuilder {
      * @param plain a plain text string.
      */
     fun text(plain: String): AnsiTextBuilder {
-        builder.append(plain)
+        if (plain.isNotEmpty()) {
+            writePendingEscCodes()
+            appendable.append(plain)
+        }
         return this
     }
 
@@ -39,7 +94,8 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun newline(): AnsiTextBuilder {
-        builder.append("\n")
+        writePendingEscCodes()
+        appendable.append('\n')
         return this
     }
 
@@ -50,7 +106,7 @@ class AnsiTextBuilder {
      * @param count is the number of tab characters to append. Default is 1.
      */
     fun tab(count: Int = 1): AnsiTextBuilder {
-        repeat("\t", count)
+        repeat('\t', count)
         return this
     }
 
@@ -61,13 +117,57 @@ class AnsiTextBuilder {
      * @param count is the number of space characters to append. Default is 1.
      */
     fun space(count: Int = 1): AnsiTextBuilder {
-        repeat(" ", count)
+        repeat(' ', count)
         return this
     }
 
-    private fun repeat(fragment: Any, count: Int) {
+    private fun repeat(fragment: Char, count: Int) {
         require(count >= 0) { "count must be >= 0" }
-        builder.append(fragment.toString().repeat(count))
+        if (count > 0) {
+            writePendingEscCodes()
+        }
+        for (i in 0 until count) {
+            appendable.append(fragment)
+        }
+    }
+
+    private fun append(escCode: AnsiEscCode) {
+        pending = true
+        if (escCode == AnsiEscCode.RESET) {
+            pendingReset = true
+            pendingStyle.fill(null)
+        } else {
+            pendingStyle[slotOf(escCode)] = escCode
+        }
+    }
+
+    private fun writePendingEscCodes() {
+        if (!pending) return
+        pending = false
+        compoundEscCode.setLength(0)
+
+        if (pendingReset) {
+            pendingReset = false
+            if (!currentStyle.contentEquals(defaultStyle)) {
+                compoundEscCode.append(AnsiEscCode.RESET.parameter)
+                defaultStyle.copyInto(currentStyle)
+            }
+        }
+        for (slot in pendingStyle.indices) {
+            val escCode = pendingStyle[slot] ?: continue
+            pendingStyle[slot] = null
+
+            // NOT_BOLD and NORMAL both turn off bold, so they are tracked as the same style
+            val style = if (escCode == AnsiEscCode.NOT_BOLD) AnsiEscCode.NORMAL else escCode
+            if (currentStyle[slot] != style) {
+                currentStyle[slot] = style
+                if (compoundEscCode.isNotEmpty()) compoundEscCode.append(';')
+                compoundEscCode.append(escCode.parameter)
+            }
+        }
+        if (compoundEscCode.isNotEmpty()) {
+            appendable.append("\u001b[").append(compoundEscCode).append('m')
+        }
     }
 
     /**
@@ -77,7 +177,7 @@ class AnsiTextBuilder {
      * @param escCode is the [AnsiEscCode] to append.
      */
     fun esc(escCode: AnsiEscCode): AnsiTextBuilder {
-        builder.append(escCode)
+        append(escCode)
         return this
     }
 
@@ -86,7 +186,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun reset(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.RESET)
+        append(AnsiEscCode.RESET)
         return this
     }
 
@@ -97,7 +197,7 @@ class AnsiTextBuilder {
      * @param enabled `true` to append [AnsiEscCode.BOLD]; `false` to append [AnsiEscCode.NOT_BOLD]. Default is `true`.
      */
     fun bold(enabled: Boolean = true): AnsiTextBuilder {
-        builder.append(if (enabled) AnsiEscCode.BOLD else AnsiEscCode.NOT_BOLD)
+        append(if (enabled) AnsiEscCode.BOLD else AnsiEscCode.NOT_BOLD)
         return this
     }
 
@@ -108,7 +208,7 @@ class AnsiTextBuilder {
      * @param enabled `true` to append [AnsiEscCode.FAINT]; `false` to append [AnsiEscCode.NORMAL]. Default is `true`.
      */
     fun faint(enabled: Boolean = true): AnsiTextBuilder {
-        builder.append(if (enabled) AnsiEscCode.FAINT else AnsiEscCode.NORMAL)
+        append(if (enabled) AnsiEscCode.FAINT else AnsiEscCode.NORMAL)
         return this
     }
 
@@ -119,7 +219,7 @@ class AnsiTextBuilder {
      * @param enabled `true` to append [AnsiEscCode.ITALIC]; `false` to append [AnsiEscCode.NOT_ITALIC]. Default is `true`.
      */
     fun italic(enabled: Boolean = true): AnsiTextBuilder {
-        builder.append(if (enabled) AnsiEscCode.ITALIC else AnsiEscCode.NOT_ITALIC)
+        append(if (enabled) AnsiEscCode.ITALIC else AnsiEscCode.NOT_ITALIC)
         return this
     }
 
@@ -130,7 +230,7 @@ class AnsiTextBuilder {
      * @param enabled `true` to append [AnsiEscCode.UNDERLINE]; `false` to append [AnsiEscCode.NOT_UNDERLINED]. Default is `true`.
      */
     fun underline(enabled: Boolean = true): AnsiTextBuilder {
-        builder.append(if (enabled) AnsiEscCode.UNDERLINE else AnsiEscCode.NOT_UNDERLINED)
+        append(if (enabled) AnsiEscCode.UNDERLINE else AnsiEscCode.NOT_UNDERLINED)
         return this
     }
 
@@ -139,7 +239,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun normal(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.NORMAL)
+        append(AnsiEscCode.NORMAL)
         return this
     }
 
@@ -148,7 +248,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun black(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BLACK)
+        append(AnsiEscCode.BLACK)
         return this
     }
 
@@ -157,7 +257,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun red(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.RED)
+        append(AnsiEscCode.RED)
         return this
     }
 
@@ -166,7 +266,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun green(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.GREEN)
+        append(AnsiEscCode.GREEN)
         return this
     }
 
@@ -175,7 +275,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun yellow(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.YELLOW)
+        append(AnsiEscCode.YELLOW)
         return this
     }
 
@@ -184,7 +284,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun blue(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BLUE)
+        append(AnsiEscCode.BLUE)
         return this
     }
 
@@ -193,7 +293,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun magenta(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.MAGENTA)
+        append(AnsiEscCode.MAGENTA)
         return this
     }
 
@@ -202,7 +302,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun cyan(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.CYAN)
+        append(AnsiEscCode.CYAN)
         return this
     }
 
@@ -211,7 +311,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun white(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.WHITE)
+        append(AnsiEscCode.WHITE)
         return this
     }
 
@@ -220,7 +320,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun defaultColor(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.DEFAULT)
+        append(AnsiEscCode.DEFAULT)
         return this
     }
 
@@ -229,7 +329,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightBlack(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_BLACK)
+        append(AnsiEscCode.BRIGHT_BLACK)
         return this
     }
 
@@ -238,7 +338,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightRed(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_RED)
+        append(AnsiEscCode.BRIGHT_RED)
         return this
     }
 
@@ -247,7 +347,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightGreen(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_GREEN)
+        append(AnsiEscCode.BRIGHT_GREEN)
         return this
     }
 
@@ -256,7 +356,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightYellow(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_YELLOW)
+        append(AnsiEscCode.BRIGHT_YELLOW)
         return this
     }
 
@@ -265,7 +365,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightBlue(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_BLUE)
+        append(AnsiEscCode.BRIGHT_BLUE)
         return this
     }
 
@@ -274,7 +374,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightMagenta(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_MAGENTA)
+        append(AnsiEscCode.BRIGHT_MAGENTA)
         return this
     }
 
@@ -283,7 +383,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightCyan(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_CYAN)
+        append(AnsiEscCode.BRIGHT_CYAN)
         return this
     }
 
@@ -292,7 +392,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightWhite(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_WHITE)
+        append(AnsiEscCode.BRIGHT_WHITE)
         return this
     }
 
@@ -301,7 +401,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun blackBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BLACK_BACKGROUND)
+        append(AnsiEscCode.BLACK_BACKGROUND)
         return this
     }
 
@@ -310,7 +410,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun redBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.RED_BACKGROUND)
+        append(AnsiEscCode.RED_BACKGROUND)
         return this
     }
 
@@ -319,7 +419,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun greenBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.GREEN_BACKGROUND)
+        append(AnsiEscCode.GREEN_BACKGROUND)
         return this
     }
 
@@ -328,7 +428,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun yellowBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.YELLOW_BACKGROUND)
+        append(AnsiEscCode.YELLOW_BACKGROUND)
         return this
     }
 
@@ -337,7 +437,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun blueBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BLUE_BACKGROUND)
+        append(AnsiEscCode.BLUE_BACKGROUND)
         return this
     }
 
@@ -346,7 +446,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun magentaBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.MAGENTA_BACKGROUND)
+        append(AnsiEscCode.MAGENTA_BACKGROUND)
         return this
     }
 
@@ -355,7 +455,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun cyanBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.CYAN_BACKGROUND)
+        append(AnsiEscCode.CYAN_BACKGROUND)
         return this
     }
 
@@ -364,7 +464,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun whiteBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.WHITE_BACKGROUND)
+        append(AnsiEscCode.WHITE_BACKGROUND)
         return this
     }
 
@@ -373,7 +473,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun defaultBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.DEFAULT_BACKGROUND)
+        append(AnsiEscCode.DEFAULT_BACKGROUND)
         return this
     }
 
@@ -382,7 +482,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightBlackBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_BLACK_BACKGROUND)
+        append(AnsiEscCode.BRIGHT_BLACK_BACKGROUND)
         return this
     }
 
@@ -391,7 +491,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightRedBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_RED_BACKGROUND)
+        append(AnsiEscCode.BRIGHT_RED_BACKGROUND)
         return this
     }
 
@@ -400,7 +500,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightGreenBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_GREEN_BACKGROUND)
+        append(AnsiEscCode.BRIGHT_GREEN_BACKGROUND)
         return this
     }
 
@@ -409,7 +509,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightYellowBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_YELLOW_BACKGROUND)
+        append(AnsiEscCode.BRIGHT_YELLOW_BACKGROUND)
         return this
     }
 
@@ -418,7 +518,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightBlueBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_BLUE_BACKGROUND)
+        append(AnsiEscCode.BRIGHT_BLUE_BACKGROUND)
         return this
     }
 
@@ -427,7 +527,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightMagentaBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_MAGENTA_BACKGROUND)
+        append(AnsiEscCode.BRIGHT_MAGENTA_BACKGROUND)
         return this
     }
 
@@ -436,7 +536,7 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightCyanBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_CYAN_BACKGROUND)
+        append(AnsiEscCode.BRIGHT_CYAN_BACKGROUND)
         return this
     }
 
@@ -445,7 +545,27 @@ class AnsiTextBuilder {
      * @return an instance of this builder used for chaining methods.
      */
     fun brightWhiteBg(): AnsiTextBuilder {
-        builder.append(AnsiEscCode.BRIGHT_WHITE_BACKGROUND)
+        append(AnsiEscCode.BRIGHT_WHITE_BACKGROUND)
         return this
     }
-}
\ No newline at end of file
+
+    private companion object {
+        const val INTENSITY = 0
+        const val ITALIC = 1
+        const val UNDERLINE = 2
+        const val FOREGROUND = 3
+        const val BACKGROUND = 4
+
+        val defaultStyle: Array<AnsiEscCode?> = arrayOf(
+            AnsiEscCode.NORMAL, AnsiEscCode.NOT_ITALIC, AnsiEscCode.NOT_UNDERLINED,
+            AnsiEscCode.DEFAULT, AnsiEscCode.DEFAULT_BACKGROUND
+        )
+
+        fun slotOf(escCode: AnsiEscCode): Int = when (escCode) {
+            AnsiEscCode.BOLD, AnsiEscCode.FAINT, AnsiEscCode.NOT_BOLD, AnsiEscCode.NORMAL -> INTENSITY
+            AnsiEscCode.ITALIC, AnsiEscCode.NOT_ITALIC -> ITALIC
+            AnsiEscCode.UNDERLINE, AnsiEscCode.NOT_UNDERLINED -> UNDERLINE
+            else -> if (escCode.parameter in 40..49 || escCode.parameter >= 100) BACKGROUND else FOREGROUND
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package java_swing_ansi_support
+
+import java.nio.CharBuffer
+
+/**
+ * A run of text with the same style, which refers to the ANSI text it is part of.
+ *
+ * @param source is the ANSI text that the run is part of.
+ * @param start is the start index of the run in the ANSI text.
+ * @param end is the end index of the run in the ANSI text, exclusive.
+ * @param styleId is the style id of the run. See [AnsiTokenizer.escCodes].
+ */
+class AnsiRun(val source: CharSequence, val start: Int, val end: Int, val styleId: Int) {
+
+    /** The text of the run as a view of the ANSI text, so the text is not copied. */
+    val text: CharSequence get() = CharBuffer.wrap(source, start, end)
+
+    /** {@inheritCode} */
+    override fun toString() = "AnsiRun[$start..$end, styleId=$styleId]"
+}
+
+/**
+ * The AnsiTokenizer splits ANSI text into runs of text with the same style, without Swing and without copying the
+ * text, e.g. for indexing logs or collecting metrics:
+ *
+ * ```kotlin
+ * val errorChars = AnsiTokenizer.runs(log)
+ *     .filter { AnsiEscCode.RED in AnsiTokenizer.escCodes(it.styleId) }
+ *     .sumOf { it.end - it.start }
+ * ```
+ *
+ * The style of a run is identified by a style id, which encodes the SGR parameters in effect for the run, and 0 is the
+ * default style. The style ids are the same as the ones of the Java `AnsiTokenizer`. Carriage returns and CSI escape
+ * codes other than SGR codes are left out of the runs, as there is no cursor to move.
+ */
+object AnsiTokenizer {
+
+    private const val ESC = '\u001b'
+    private const val MAX_ESC_CODE_LENGTH = 256
+
+    private const val INTENSITY_SLOT = 0
+    private const val ITALIC_SLOT = 1
+    private const val UNDERLINE_SLOT = 2
+    private const val FOREGROUND_SLOT = 3
+    private const val BACKGROUND_SLOT = 4
+
+    // The bit offset and width of the SGR parameter per style slot in a style id
+    private val slotShifts = intArrayOf(0, 5, 10, 15, 22)
+    private val slotMasks = intArrayOf(0x1f, 0x1f, 0x1f, 0x7f, 0x7f)
+
+    /**
+     * Returns a lazy sequence of the styled runs of an ANSI text.
+     *
+     * @param ansiText is the ANSI text, which must not be modified while the sequence is used.
+     */
+    fun runs(ansiText: CharSequence): Sequence<AnsiRun> = sequence {
+        var styleId = 0
+        var position = 0
+        val end = ansiText.length
+        while (position < end) {
+            val ch = ansiText[position]
+            if (ch == ESC) {
+                val codeEnd = matchCsiCode(ansiText, position, end)
+                if (codeEnd > 0) {
+                    if (isSgrCode(ansiText, position, codeEnd))
+                        styleId = updateStyle(styleId, ansiText, position, codeEnd)
+                    position = codeEnd
+                    continue
+                }
+            } else if (ch == '\r') {
+                position++
+                continue
+            }
+            // The text until the next escape code or carriage return, where an ESC that does not start an escape code
+            // is text
+            var textEnd = position + 1
+            while (textEnd < end && ansiText[textEnd] != ESC && ansiText[textEnd] != '\r') {
+                textEnd++
+            }
+            yield(AnsiRun(ansiText, position, textEnd, styleId))
+            position = textEnd
+        }
+    }
+
+    /**
+     * Returns the escape codes that set a style starting from the default style.
+     *
+     * @param styleId is the style id of a run.
+     * @return the escape codes of the style, which is empty for the default style.
+     */
+    fun escCodes(styleId: Int): List<AnsiEscCode> = slotShifts.indices.mapNotNull { slot ->
+        AnsiEscCode.findByParameter(styleId ushr slotShifts[slot] and slotMasks[slot])
+            ?.takeIf { it != AnsiEscCode.RESET }
+    }
+
+    /**
+     * Matches a CSI escape code, like `ESC[1;31m` or `ESC[2K`, starting at an ESC.
+     *
+     * @return the end index of the escape code, or -1 if it is not an escape code.
+     */
+    private fun matchCsiCode(ansiText: CharSequence, start: Int, limit: Int): Int {
+        var i = start + 1
+        if (i == limit || ansiText[i++] != '[')
+            return -1
+        val bound = minOf(limit, start + MAX_ESC_CODE_LENGTH)
+        while (i < bound && ansiText[i] in '0'..'?') i++ // parameter characters
+        while (i < bound && ansiText[i] in ' '..'/') i++ // intermediate characters
+        return if (i < bound && ansiText[i] in '@'..'~') i + 1 else -1 // final character
+    }
+
+    /**
+     * Checks if a CSI escape code is an SGR escape code like `ESC[1;31m`, which has numeric parameters separated by
+     * semicolons. A parameter can be empty like in `ESC[m`, which counts as 0.
+     */
+    private fun isSgrCode(ansiText: CharSequence, codeStart: Int, codeEnd: Int): Boolean {
+        if (ansiText[codeEnd - 1] != 'm')
+            return false
+        for (i in codeStart + 2 until codeEnd - 1) { // skip ESC and '[', and the command
+            val ch = ansiText[i]
+            if (ch !in '0'..'9' && ch != ';')
+                return false
+        }
+        return true
+    }
+
+    /**
+     * Returns the style resulting from applying the SGR parameters of an escape code to a style one by one, e.g. both
+     * 1 and 31 of `ESC[1;31m`. Empty parameters are applied as 0. The sub-parameters of the extended colors 38, 48 and
+     * 58, like `5;208` of `ESC[38;5;208m` or `2;255;128;0` of `ESC[38;2;255;128;0m`, are skipped together with the
+     * color, so they are not mistaken for other parameters. Unsupported parameters are ignored.
+     */
+    private fun updateStyle(styleId: Int, ansiText: CharSequence, codeStart: Int, codeEnd: Int): Int {
+        var updated = styleId
+        var parameter = 0
+        var skipped = 0 // the number of sub-parameters left to skip, or -1 if the kind of extended color comes next
+        for (i in codeStart + 2 until codeEnd) { // skip ESC and '['
+            val ch = ansiText[i]
+            if (ch in '0'..'9') {
+                parameter = minOf(parameter * 10 + (ch - '0'), 0xffff) // avoid overflow on very long parameters
+                continue
+            }
+            // ';' or 'm' ends a parameter
+            if (skipped < 0) {
+                skipped = if (parameter == 5) 1 else if (parameter == 2) 3 else 0 // an indexed or an RGB color
+            } else if (skipped > 0) {
+                skipped--
+            } else if (parameter == 38 || parameter == 48 || parameter == 58) {
+                skipped = -1
+            } else {
+                updated = nextStyleId(updated, parameter)
+            }
+            parameter = 0
+        }
+        return updated
+    }
+
+    /**
+     * Returns the style resulting from applying a single SGR parameter to a style.
+     */
+    private fun nextStyleId(styleId: Int, parameter: Int): Int {
+        val escCode = AnsiEscCode.findByParameter(parameter) ?: return styleId
+        if (escCode == AnsiEscCode.RESET)
+            return 0
+        val slot = styleSlot(escCode)
+        val value = if (isDefault(escCode)) 0 else parameter // e.g. not bold is the same as the default
+        return styleId and (slotMasks[slot] shl slotShifts[slot]).inv() or (value shl slotShifts[slot])
+    }
+
+    private fun styleSlot(escCode: AnsiEscCode): Int = when (escCode) {
+        AnsiEscCode.BOLD, AnsiEscCode.FAINT, AnsiEscCode.NOT_BOLD, AnsiEscCode.NORMAL -> INTENSITY_SLOT
+        AnsiEscCode.ITALIC, AnsiEscCode.NOT_ITALIC -> ITALIC_SLOT
+        AnsiEscCode.UNDERLINE, AnsiEscCode.NOT_UNDERLINED -> UNDERLINE_SLOT
+        else -> if (escCode.parameter in 40..49 || escCode.parameter >= 100) BACKGROUND_SLOT else FOREGROUND_SLOT
+    }
+
+    private fun isDefault(escCode: AnsiEscCode) = when (escCode) {
+        AnsiEscCode.NOT_BOLD, AnsiEscCode.NORMAL, AnsiEscCode.NOT_ITALIC, AnsiEscCode.NOT_UNDERLINED,
+        AnsiEscCode.DEFAULT, AnsiEscCode.DEFAULT_BACKGROUND -> true
+
+        else -> false
+    }
+}